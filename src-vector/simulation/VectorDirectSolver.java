@@ -0,0 +1,106 @@
+package simulation;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Direct summation gravity solver written against the Java Vector API.
+ * For each body the pull of as many other bodies as fit in the processor's widest vector is summed at once,
+ * four with AVX2 and eight with AVX-512, rather than left to the JIT compiler's auto-vectoriser.
+ * The double precision square root and division, the slowest part of each interaction, are replaced by a single
+ * precision estimate of one over the distance that two Newton steps bring back to double precision.
+ * <p>
+ * The Vector API is an incubating module in JDK 16 and later, so this class sits in its own source root,
+ * compiled after the main tree with <code>--add-modules jdk.incubator.vector</code> and run with the same flag,
+ * see README.md in <code>src-vector</code>. It should be created through {@link LaneDirectSolver#create()},
+ * which falls back to the scalar lanes of {@link LaneDirectSolver} when this class or the module is not available.
+ * Results match {@link DirectSolver} to within a few parts in 10<sup>14</sup>, which remains the scalar reference.
+ * Distances must stay within single precision range for the estimate, between about 10<sup>-22</sup>
+ * and 10<sup>19</sup> AU.
+ */
+public class VectorDirectSolver extends LaneDirectSolver {
+
+	/**
+	 * The widest vector of doubles the processor handles well
+	 */
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	/**
+	 * Floats with the same number of lanes, for the estimate of one over the distance
+	 */
+	private static final VectorSpecies<Float> ESTIMATES = VectorSpecies.of(float.class,
+			VectorShape.forBitSize(SPECIES.vectorBitSize() / 2));
+
+	@Override
+	public void computeAccelerations(BodyStore bodies) {
+		int size = bodies.size;
+		double[] positionX = bodies.positionX, positionY = bodies.positionY, mass = bodies.mass;
+		int length = SPECIES.length();
+		int bound = SPECIES.loopBound(size);
+
+		for (int i = 0; i < size; i++) {
+			double xi = positionX[i], yi = positionY[i];
+			// Two sets of running totals, so each addition does not wait on the one before
+			DoubleVector x0 = DoubleVector.zero(SPECIES), x1 = x0, y0 = x0, y1 = x0;
+			int j = 0;
+			for (; j + 2 * length <= bound; j += 2 * length) {
+				DoubleVector strength0 = strength(positionX, positionY, mass, j, xi, yi, i);
+				DoubleVector strength1 = strength(positionX, positionY, mass, j + length, xi, yi, i);
+				x0 = DoubleVector.fromArray(SPECIES, positionX, j).sub(xi).fma(strength0, x0);
+				y0 = DoubleVector.fromArray(SPECIES, positionY, j).sub(yi).fma(strength0, y0);
+				x1 = DoubleVector.fromArray(SPECIES, positionX, j + length).sub(xi).fma(strength1, x1);
+				y1 = DoubleVector.fromArray(SPECIES, positionY, j + length).sub(yi).fma(strength1, y1);
+			}
+			for (; j < bound; j += length) {
+				DoubleVector strength = strength(positionX, positionY, mass, j, xi, yi, i);
+				x0 = DoubleVector.fromArray(SPECIES, positionX, j).sub(xi).fma(strength, x0);
+				y0 = DoubleVector.fromArray(SPECIES, positionY, j).sub(yi).fma(strength, y0);
+			}
+			double ax = x0.add(x1).reduceLanes(VectorOperators.ADD);
+			double ay = y0.add(y1).reduceLanes(VectorOperators.ADD);
+
+			// The bodies left over after the last whole vector
+			for (; j < size; j++) {
+				if (j == i) continue;
+				double dx = positionX[j] - xi, dy = positionY[j] - yi;
+				double distanceSquared = dx * dx + dy * dy;
+				double scale = mass[j] / (distanceSquared * Math.sqrt(distanceSquared));
+				ax += dx * scale;
+				ay += dy * scale;
+			}
+			bodies.accelerationX[i] = ax * DirectSolver.G_PER_AU_SQUARED;
+			bodies.accelerationY[i] = ay * DirectSolver.G_PER_AU_SQUARED;
+		}
+	}
+
+	/**
+	 * Find the mass over the distance cubed of each body in a vector, as seen from one body
+	 *
+	 * @param positionX x position of every body in AU
+	 * @param positionY y position of every body in AU
+	 * @param mass Mass of every body in kg
+	 * @param j Index of the first body in the vector
+	 * @param xi x position of the body the pull is on
+	 * @param yi y position of the body the pull is on
+	 * @param i Index of the body the pull is on
+	 * @return The strength of each body's pull
+	 */
+	private static DoubleVector strength(double[] positionX, double[] positionY, double[] mass, int j, double xi, double yi, int i) {
+		DoubleVector dx = DoubleVector.fromArray(SPECIES, positionX, j).sub(xi);
+		DoubleVector dy = DoubleVector.fromArray(SPECIES, positionY, j).sub(yi);
+		DoubleVector distanceSquared = dx.fma(dx, dy.mul(dy));
+		FloatVector estimate = (FloatVector) distanceSquared.convertShape(VectorOperators.D2F, ESTIMATES, 0);
+		estimate = FloatVector.broadcast(ESTIMATES, 1).div(estimate.sqrt());
+		DoubleVector y = (DoubleVector) estimate.convertShape(VectorOperators.F2D, SPECIES, 0);
+		// Each Newton step doubles the number of correct bits, from the float estimate's 24 to beyond a double's 53
+		y = y.mul(distanceSquared.mul(y).mul(y).mul(-0.5).add(1.5));
+		y = y.mul(distanceSquared.mul(y).mul(y).mul(-0.5).add(1.5));
+		DoubleVector strength = DoubleVector.fromArray(SPECIES, mass, j).mul(y.mul(y).mul(y));
+		// The body's pull on itself comes out as 0 / 0
+		if (i >= j && i < j + SPECIES.length())
+			strength = strength.withLane(i - j, 0);
+		return strength;
+	}
+}
@@ -58,7 +58,7 @@ public class EntityLabeler {
 		// If labels are to be shown, create labels for all entities in the screen
 		if (showLabels)
 			for (Entity entity : Simulation.getEntities()) {
-				Vector3f screenCoords = Maths.convertToScreenSpace(entity.getPosition3f(), Maths.createViewMatrix(camera), projectionMatrix);
+				Vector3f screenCoords = Maths.convertToScreenSpace(Simulation.getDrawnPosition(entity), Maths.createViewMatrix(camera), projectionMatrix);
 				if (screenCoords == null)
 					continue;
 				if (screenCoords.x >= 0 && screenCoords.x < Display.getWidth() && screenCoords.y >= 0 && screenCoords.y < Display.getHeight()) {
@@ -142,8 +142,10 @@ public class UI {
 					// Show a dialog box asking for text input, store the answer
 					String input = JOptionPane.showInputDialog(null, "Enter a name for " + selectedEntity.getName(), "Rename dialog", JOptionPane.PLAIN_MESSAGE);
 					// As long as input is not null, set the entities name to the input
-					if (input != null)
+					if (input != null) {
 						selectedEntity.setName(input);
+						Simulation.entitiesEdited();
+					}
 					break;
 				case 1:
 					// If the entity is a star make it a planet, otherwise make it a star
@@ -151,6 +153,7 @@ public class UI {
 						selectedEntity.setType(EntityType.Planet);
 					else
 						selectedEntity.setType(EntityType.Star);
+					Simulation.entitiesEdited();
 					break;
 				case 2:
 					// Create text fields
@@ -220,8 +223,10 @@ public class UI {
 					// As long as input is not null, set the entities rotation period to the input
 					// Ignore number formatting errors
 					try {
-						if (input != null)
+						if (input != null) {
 							selectedEntity.setRotationPeriod(Integer.parseInt(input));
+							Simulation.entitiesEdited();
+						}
 					} catch (NumberFormatException ignored) {
 					}
 					break;
@@ -1,16 +1,15 @@
 package entities;
 
-import maths.Physics;
 import models.RawModel;
 import models.TexturedModel;
 import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
 import renderEngine.Loader;
+import simulation.BodyStore;
+import simulation.Simulation;
 import util.OBJLoader;
 import textures.ModelTexture;
 
-import java.util.List;
-
 /**
  * Created by Christopher on 24/04/2016.
  */
@@ -22,21 +21,29 @@ public class Entity {
 	 */
 	private EntityType type;
 	/**
-	 * The entity's model
+	 * The entity's model, null until it is first needed for rendering
 	 */
 	private TexturedModel model;
 	/**
-	 * The entity's mass
+	 * The entity whose model this entity shares, null if the entity loads its own
 	 */
-	private double mass;
+	private Entity modelEntity;
 	/**
 	 * Time in seconds for the object to complete one rotation on it's axis
 	 */
 	private int rotationPeriod;
 	/**
-	 * The entity's position
+	 * The store holding the entity's position, velocity and mass
+	 */
+	private BodyStore bodies;
+	/**
+	 * The entity's index in the body store
+	 */
+	private int index;
+	/**
+	 * The entity's position for rendering, refreshed from the body store when requested
 	 */
-	private Vector3f position;
+	private Vector3f position = new Vector3f();
 	/**
 	 * The entity's scale (size)
 	 */
@@ -45,10 +52,6 @@ public class Entity {
 	 * The entity's rotation
 	 */
 	private Vector3f rotation;
-	/**
-	 * The entity's velocity
-	 */
-	private Vector2f velocity = new Vector2f(0, 0);
 	/**
 	 * The path to the entity's model and texture
 	 */
@@ -67,37 +70,32 @@ public class Entity {
 	public static Entity brownDwarf = new Entity("/obj/sphere4096", "/textures/brownDwarf");
 
 	/**
-	 * Create a new entity using a path to the entity's model and texture
+	 * Create a new entity using a path to the entity's model and texture.
+	 * The model and texture are loaded when first needed for rendering, so entities can be created without a display.
 	 *
 	 * @param modelPath Path to the OBJ model
 	 * @param texturePath Path to the PNG image
 	 */
 	public Entity(String modelPath, String texturePath) {
-		// Create a new loader
-		Loader loader = new Loader();
-		// Load the entity's model using the OBJ file loader
-		RawModel model = OBJLoader.loadObjModel(modelPath, loader);
-		this.model = new TexturedModel(model, new ModelTexture(loader.loadTexture(texturePath)));
-		ModelTexture texture = this.model.getTexture();
-		texture.setShineDamper(10);
-		texture.setReflectivity(0.1f);
 		this.modelPath = modelPath;
 		this.texturePath = texturePath;
 	}
 
 	/**
-	 * Create a new Entity based off a entity already created and adding a type, position, scale and rotation
+	 * Create a new Entity based off a entity already created and adding a type, body, scale and rotation
 	 *
 	 * @param type The type of entity to create
 	 * @param entity The entity to extract the model from
-	 * @param position The position for the new entity
+	 * @param bodies The store holding the new entity's physical state
+	 * @param index The new entity's index in the body store
 	 * @param scale The scale for the new entity
 	 * @param rotation The rotation for the new entity in degrees
 	 */
-	public Entity(EntityType type, Entity entity, Vector3f position, Vector3f scale, Vector3f rotation) {
+	public Entity(EntityType type, Entity entity, BodyStore bodies, int index, Vector3f scale, Vector3f rotation) {
 		this.type = type;
-		this.model = entity.getModel();
-		this.position = position;
+		this.modelEntity = entity;
+		this.bodies = bodies;
+		this.index = index;
 		this.rotation = rotation;
 		this.scale = scale;
 		this.modelPath = entity.getModelPath();
@@ -107,22 +105,12 @@ public class Entity {
 	/**
 	 * Increase the entity's position
 	 *
-	 * @param amount Amount to increase the entities position by
-	 */
-	public void increasePosition(Vector3f amount) {
-		this.position.x += amount.x;
-		this.position.y += amount.y;
-		this.position.z += amount.z;
-	}
-
-	/**
-	 * Increase the entity's position
-	 *
-	 * @param amount Amount to increase the entities position by
+	 * @param amount Amount to increase the entities position by in AU
 	 */
 	public void increasePosition(Vector2f amount) {
-		this.position.x += amount.x;
-		this.position.y += amount.y;
+		double x = bodies.getPositionX(index) + amount.x, y = bodies.getPositionY(index) + amount.y;
+		bodies.setPosition(index, x, y);
+		Simulation.editBodies(store -> store.setPosition(index, x, y));
 	}
 
 	/**
@@ -137,35 +125,15 @@ public class Entity {
 	}
 
 	/**
-	 * Updates the entities's position & rotation
+	 * Updates the entity's rotation.
+	 * The entity's position is updated through its body store.
 	 *
 	 * @param delta Time since last update in seconds
-	 * @param entities List of all entities to interact with
 	 */
-	public void update(float delta, List<Entity> entities) {
-		// Update the entity's position
-		// Iterate through list of entities and calculate the force, acceleration and movement towards the entity
-		Vector2f oldVelocity = velocity;
-		for (Entity entity : entities) {
-			// If the current entity is this entity, skip to the next in the list
-			if (entity == this) continue;
-
-			// Get the force towards the current entity
-			Vector2f force = Physics.getForce(mass, entity.getMass(), getPosition2f(), entity.getPosition2f());
-			// Get the acceleration towards the current entity
-			Vector2f acceleration = Physics.getAcceleration(force, mass);
-			// Change this entity's velocity based off the acceleration and time passed
-			velocity.x += acceleration.x * delta;
-			velocity.y += acceleration.y * delta;
-		}
-
-		// Change this entity's position based off it's velocity and the time passed, converting from meters to AU
-		position.x += (velocity.x + oldVelocity.x) / 2 * delta / Physics.METERS_PER_AU;
-		position.z += (velocity.y + oldVelocity.y) / 2 * delta / Physics.METERS_PER_AU;
-
+	public void update(float delta) {
 		// If the rotation period has been set, rotate
 		if (rotationPeriod != 0)
-			increaseRotation(new Vector3f(0, (360f / rotationPeriod) * delta, 0));
+			rotation.y += (360f / rotationPeriod) * delta;
 	}
 
 	public EntityType getType() {
@@ -184,45 +152,128 @@ public class Entity {
 		return texturePath;
 	}
 
+	/**
+	 * Get the entity's model, loading it on first use.
+	 * Entities created from another entity share that entity's model.
+	 * Must be called from the thread owning the OpenGL context.
+	 *
+	 * @return The entity's model
+	 */
 	public TexturedModel getModel() {
+		if (model == null) {
+			if (modelEntity != null)
+				model = modelEntity.getModel();
+			else
+				model = loadModel(modelPath, texturePath);
+		}
 		return model;
 	}
 
+	public Entity getModelEntity() {
+		return modelEntity;
+	}
+
 	public void setModel(TexturedModel model) {
 		this.model = model;
 	}
 
+	/**
+	 * Load a model and its texture
+	 *
+	 * @param modelPath Path to the OBJ model
+	 * @param texturePath Path to the PNG image
+	 * @return The textured model
+	 */
+	private static TexturedModel loadModel(String modelPath, String texturePath) {
+		// Create a new loader
+		Loader loader = new Loader();
+		// Load the entity's model using the OBJ file loader
+		RawModel rawModel = OBJLoader.loadObjModel(modelPath, loader);
+		TexturedModel model = new TexturedModel(rawModel, new ModelTexture(loader.loadTexture(texturePath)));
+		ModelTexture texture = model.getTexture();
+		texture.setShineDamper(10);
+		texture.setReflectivity(0.1f);
+		return model;
+	}
+
+	public BodyStore getBodies() {
+		return bodies;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
 	public double getMass() {
-		return mass;
+		return bodies.getMass(index);
 	}
 
+	/**
+	 * Set the entity's mass, both in the body store shown on screen and in the simulation
+	 *
+	 * @param mass The new mass in kg
+	 */
 	public void setMass(double mass) {
-		this.mass = mass;
+		bodies.setMass(index, mass);
+		Simulation.editBodies(store -> store.setMass(index, mass));
 	}
 
+	/**
+	 * Get the entity's position in world space.
+	 * The same vector is returned on every call and is refreshed from the body store each time.
+	 *
+	 * @return The entity's position in world space
+	 */
 	public Vector3f getPosition3f() {
+		position.set((float) bodies.getPositionX(index), 0, (float) bodies.getPositionY(index));
 		return position;
 	}
 
-	public Vector2f getPosition2f() {
-		return new Vector2f(position.x, position.z);
+	/**
+	 * Get the entity's position in world space part way between an earlier state of its bodies and the current one.
+	 * Falls back to the current position if the earlier state does not hold the same bodies.
+	 *
+	 * @param previousBodies The bodies as of the earlier state, or null to use the current position
+	 * @param interpolation How far to go from the earlier position to the current one, between 0 and 1
+	 * @return The entity's interpolated position in world space
+	 */
+	public Vector3f getPosition3f(BodyStore previousBodies, float interpolation) {
+		if (previousBodies == null || previousBodies.size() != bodies.size())
+			return getPosition3f();
+		double previousX = previousBodies.getPositionX(index), previousY = previousBodies.getPositionY(index);
+		position.set((float) (previousX + (bodies.getPositionX(index) - previousX) * interpolation), 0,
+				(float) (previousY + (bodies.getPositionY(index) - previousY) * interpolation));
+		return position;
 	}
 
-	public void setPosition(Vector3f position) {
-		this.position = position;
+	public Vector2f getPosition2f() {
+		return new Vector2f((float) bodies.getPositionX(index), (float) bodies.getPositionY(index));
 	}
 
+	/**
+	 * Set the entity's position, both in the body store shown on screen and in the simulation
+	 *
+	 * @param position The new position in AU
+	 */
 	public void setPosition(Vector2f position) {
-		this.position.x = position.x;
-		this.position.z = position.y;
+		float x = position.x, y = position.y;
+		bodies.setPosition(index, x, y);
+		Simulation.editBodies(store -> store.setPosition(index, x, y));
 	}
 
 	public Vector2f getVelocity() {
-		return velocity;
+		return new Vector2f((float) bodies.getVelocityX(index), (float) bodies.getVelocityY(index));
 	}
 
+	/**
+	 * Set the entity's velocity, both in the body store shown on screen and in the simulation
+	 *
+	 * @param velocity The new velocity in m/s
+	 */
 	public void setVelocity(Vector2f velocity) {
-		this.velocity = velocity;
+		float x = velocity.x, y = velocity.y;
+		bodies.setVelocity(index, x, y);
+		Simulation.editBodies(store -> store.setVelocity(index, x, y));
 	}
 
 	public Vector3f getRotation() {
@@ -273,7 +324,7 @@ public class Entity {
 				"\n    type: " + getType() +
 				"\n    model: " + getModelPath() +
 				"\n    texture: " + getTexturePath() +
-				"\n    position: " + position.toString() +
+				"\n    position: " + getPosition3f().toString() +
 				"\n    rotation: " + rotation.toString() +
 				"\n    scale: " + scale.toString() +
 				"\n}";
@@ -59,7 +59,7 @@ public class DisplayManager {
 		// Sync the display to our frame rate
 		Display.sync(FPS_CAP);
 		// Set the display's title
-		Display.setTitle("Gravity Simulation | FPS: " + Clock.getFPS() + " UPS: " + Clock.getUPS() + " | Time: " + getTime() + " | Speed: " + getMultiplier() + (Simulation.isTestRunning() ? " | Currently testing solar mass " + Simulation.getCurrentMassTest() : ""));
+		Display.setTitle("Gravity Simulation | FPS: " + Clock.getFPS() + " UPS: " + Clock.getUPS() + " | Time: " + getTime() + " | Speed: " + getMultiplier() + getAchieved() + (Simulation.isTestRunning() ? " | Testing solar masses, " + Simulation.getTestProgress() + " done" : ""));
 		// Update the display
 		Display.update();
 	}
@@ -117,6 +117,19 @@ public class DisplayManager {
 		return new DecimalFormat("#.00").format(amount) + unit;
 	}
 
+	/**
+	 * Get the share of the requested speed the simulation is keeping up with as a formatted String.
+	 * Empty when it is keeping up.
+	 *
+	 * @return the achieved share of the speed
+	 */
+	private static String getAchieved() {
+		double share = Clock.getAchievedShare();
+		if (share >= 0.995)
+			return "";
+		return " (" + new DecimalFormat("#0.0").format(share * 100) + "% achieved)";
+	}
+
 	/**
 	 * Close the display
 	 */
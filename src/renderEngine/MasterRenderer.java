@@ -7,6 +7,7 @@ import models.TexturedModel;
 import org.lwjgl.opengl.Display;
 import org.lwjgl.util.vector.Matrix4f;
 import shaders.StaticShader;
+import simulation.BodyStore;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -84,6 +85,17 @@ public class MasterRenderer {
 		}
 	}
 
+	/**
+	 * Draw entities part way between two physics states, so motion stays smooth when the physics thread
+	 * publishes fewer states than frames are drawn.
+	 *
+	 * @param previousBodies The bodies as of the previous physics state, or null to draw the current state
+	 * @param interpolation How far to draw each entity from its previous position to its current one, between 0 and 1
+	 */
+	public void setInterpolation(BodyStore previousBodies, float interpolation) {
+		renderer.setInterpolation(previousBodies, interpolation);
+	}
+
 	/**
 	 * Creates a perspective projection matrix.
 	 */
@@ -6,6 +6,7 @@ import models.TexturedModel;
 import org.lwjgl.opengl.Display;
 import org.lwjgl.util.vector.Matrix4f;
 import shaders.StaticShader;
+import simulation.BodyStore;
 import simulation.Simulation;
 import textures.ModelTexture;
 import maths.Maths;
@@ -29,6 +30,14 @@ public class Renderer {
 	 * The shader
 	 */
 	private StaticShader shader;
+	/**
+	 * The bodies as of the physics state before the one shown, null to draw the current state as it is
+	 */
+	private BodyStore previousBodies;
+	/**
+	 * How far to draw each entity from its previous position to its current one, between 0 and 1
+	 */
+	private float interpolation = 1;
 
 	/**
 	 * Constructor for the renderer.
@@ -108,9 +117,20 @@ public class Renderer {
 	 * @param entity The Entity to prepare.
 	 */
 	private void prepareInstance(Entity entity) {
-		Matrix4f transformationMatrix = Maths.createTransformationMatrix(entity.getPosition3f(),
+		Matrix4f transformationMatrix = Maths.createTransformationMatrix(entity.getPosition3f(previousBodies, interpolation),
 				entity.getRotation().x, entity.getRotation().y, entity.getRotation().z, entity.getScale());
 		shader.loadTransformationMatrix(transformationMatrix);
 		shader.loadIsLightSource(entity.getType().isLightSource());
 	}
+
+	/**
+	 * Set the state to interpolate from when drawing entities
+	 *
+	 * @param previousBodies The bodies as of the previous physics state, or null to draw the current state
+	 * @param interpolation How far to draw each entity from its previous position to its current one, between 0 and 1
+	 */
+	public void setInterpolation(BodyStore previousBodies, float interpolation) {
+		this.previousBodies = previousBodies;
+		this.interpolation = interpolation;
+	}
 }
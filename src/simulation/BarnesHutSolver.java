@@ -0,0 +1,308 @@
+package simulation;
+
+import java.util.Arrays;
+
+/**
+ * Barnes-Hut gravity solver.
+ * A quadtree over the simulation plane is rebuilt every time accelerations are calculated,
+ * and groups of bodies that are far away compared to their size are treated as a single body at their centre of mass.
+ * This takes O(N log N) time rather than the O(N^2) of direct summation.
+ */
+public class BarnesHutSolver implements GravitySolver {
+
+	/**
+	 * Opening angle used when none is given
+	 */
+	public static final double DEFAULT_THETA = 0.5;
+	/**
+	 * Maximum depth of the tree.
+	 * Bodies sharing a leaf at this depth are summed directly, which stops coincident bodies from splitting forever.
+	 */
+	private static final int MAX_DEPTH = 48;
+
+	/**
+	 * A node is approximated by its centre of mass if its width divided by its distance is less than theta
+	 */
+	private double theta;
+
+	/**
+	 * Number of nodes in the tree
+	 */
+	private int nodeCount;
+	/**
+	 * Index of each node's first child, the other three follow it. -1 if the node is a leaf.
+	 */
+	private int[] firstChild = new int[0];
+	/**
+	 * Index of the first body in each leaf, -1 if the leaf is empty
+	 */
+	private int[] firstBody = new int[0];
+	/**
+	 * Centre and half width of each node's square in AU
+	 */
+	private double[] centerX = new double[0], centerY = new double[0], halfWidth = new double[0];
+	/**
+	 * Total mass and centre of mass of each node
+	 */
+	private double[] nodeMass = new double[0], massX = new double[0], massY = new double[0];
+	/**
+	 * Index of the next body in the same leaf, -1 if it is the last
+	 */
+	private int[] nextBody = new int[0];
+	/**
+	 * Stack of nodes still to visit while walking the tree
+	 */
+	private int[] stack = new int[0];
+	/**
+	 * Number of bodies and nodes whose pull was calculated in the last call to computeAccelerations
+	 */
+	private long interactions;
+
+	/**
+	 * Create a Barnes-Hut solver with the default opening angle
+	 */
+	public BarnesHutSolver() {
+		this(DEFAULT_THETA);
+	}
+
+	/**
+	 * Create a Barnes-Hut solver
+	 *
+	 * @param theta The opening angle. 0 is exact, larger values are faster but less accurate.
+	 */
+	public BarnesHutSolver(double theta) {
+		setTheta(theta);
+	}
+
+	@Override
+	public void computeAccelerations(BodyStore bodies) {
+		interactions = 0;
+		if (bodies.size == 0)
+			return;
+		buildTree(bodies);
+		for (int i = 0; i < bodies.size; i++)
+			computeAcceleration(bodies, i);
+	}
+
+	/**
+	 * Build the quadtree from the bodies' current positions and find each node's mass and centre of mass
+	 *
+	 * @param bodies The bodies to insert
+	 */
+	private void buildTree(BodyStore bodies) {
+		int size = bodies.size;
+		if (nextBody.length < size) {
+			nextBody = new int[size];
+			// A tree of n bodies usually needs around 2n nodes
+			ensureNodeCapacity(size * 2 + 1);
+		}
+
+		// Find the square surrounding every body
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < size; i++) {
+			minX = Math.min(minX, bodies.positionX[i]);
+			minY = Math.min(minY, bodies.positionY[i]);
+			maxX = Math.max(maxX, bodies.positionX[i]);
+			maxY = Math.max(maxY, bodies.positionY[i]);
+		}
+		nodeCount = 0;
+		// Pad the square slightly so bodies on the edge fall inside it
+		createNode((minX + maxX) / 2, (minY + maxY) / 2, Math.max(maxX - minX, maxY - minY) / 2 * 1.0001 + Double.MIN_NORMAL);
+
+		for (int i = 0; i < size; i++)
+			insert(bodies, i);
+
+		// Children are always created after their parents, so walking backwards visits children first
+		for (int node = nodeCount - 1; node >= 0; node--) {
+			double m = 0, x = 0, y = 0;
+			if (firstChild[node] < 0) {
+				for (int body = firstBody[node]; body >= 0; body = nextBody[body]) {
+					m += bodies.mass[body];
+					x += bodies.mass[body] * bodies.positionX[body];
+					y += bodies.mass[body] * bodies.positionY[body];
+				}
+			} else {
+				for (int child = firstChild[node]; child < firstChild[node] + 4; child++) {
+					m += nodeMass[child];
+					x += nodeMass[child] * massX[child];
+					y += nodeMass[child] * massY[child];
+				}
+			}
+			nodeMass[node] = m;
+			massX[node] = m > 0 ? x / m : centerX[node];
+			massY[node] = m > 0 ? y / m : centerY[node];
+		}
+	}
+
+	/**
+	 * Insert a body into the tree, splitting leaves as needed
+	 *
+	 * @param bodies The body store
+	 * @param body The index of the body to insert
+	 */
+	private void insert(BodyStore bodies, int body) {
+		double x = bodies.positionX[body];
+		double y = bodies.positionY[body];
+		int node = 0;
+		for (int depth = 0; ; depth++) {
+			if (firstChild[node] >= 0) {
+				node = childContaining(node, x, y);
+				continue;
+			}
+			// Empty leaves and leaves at the maximum depth take the body as they are
+			if (firstBody[node] < 0 || depth >= MAX_DEPTH) {
+				nextBody[body] = firstBody[node];
+				firstBody[node] = body;
+				return;
+			}
+			// Otherwise split the leaf and move its body down into the new children
+			split(node);
+			int existing = firstBody[node];
+			firstBody[node] = -1;
+			int child = childContaining(node, bodies.positionX[existing], bodies.positionY[existing]);
+			nextBody[existing] = -1;
+			firstBody[child] = existing;
+		}
+	}
+
+	/**
+	 * Split a leaf into four children
+	 *
+	 * @param node The leaf to split
+	 */
+	private void split(int node) {
+		double quarter = halfWidth[node] / 2;
+		// The node arrays may be replaced while the children are being created
+		double x = centerX[node], y = centerY[node];
+		int first = createNode(x - quarter, y - quarter, quarter);
+		createNode(x + quarter, y - quarter, quarter);
+		createNode(x - quarter, y + quarter, quarter);
+		createNode(x + quarter, y + quarter, quarter);
+		firstChild[node] = first;
+	}
+
+	/**
+	 * Find the child of a node whose square contains a point
+	 *
+	 * @param node The node to search
+	 * @param x x position of the point in AU
+	 * @param y y position of the point in AU
+	 * @return The index of the child containing the point
+	 */
+	private int childContaining(int node, double x, double y) {
+		return firstChild[node] + (x >= centerX[node] ? 1 : 0) + (y >= centerY[node] ? 2 : 0);
+	}
+
+	/**
+	 * Create an empty leaf
+	 *
+	 * @param x x position of the leaf's centre in AU
+	 * @param y y position of the leaf's centre in AU
+	 * @param half Half of the width of the leaf in AU
+	 * @return The index of the new leaf
+	 */
+	private int createNode(double x, double y, double half) {
+		if (nodeCount == firstChild.length)
+			ensureNodeCapacity(nodeCount * 2 + 4);
+		firstChild[nodeCount] = -1;
+		firstBody[nodeCount] = -1;
+		centerX[nodeCount] = x;
+		centerY[nodeCount] = y;
+		halfWidth[nodeCount] = half;
+		return nodeCount++;
+	}
+
+	/**
+	 * Make sure the node arrays can hold a number of nodes
+	 *
+	 * @param capacity Number of nodes needed
+	 */
+	private void ensureNodeCapacity(int capacity) {
+		if (capacity <= firstChild.length)
+			return;
+		firstChild = Arrays.copyOf(firstChild, capacity);
+		firstBody = Arrays.copyOf(firstBody, capacity);
+		centerX = Arrays.copyOf(centerX, capacity);
+		centerY = Arrays.copyOf(centerY, capacity);
+		halfWidth = Arrays.copyOf(halfWidth, capacity);
+		nodeMass = Arrays.copyOf(nodeMass, capacity);
+		massX = Arrays.copyOf(massX, capacity);
+		massY = Arrays.copyOf(massY, capacity);
+		// Each visited node pushes at most four children
+		stack = new int[capacity * 3 + 4];
+	}
+
+	/**
+	 * Walk the tree to find the acceleration of one body
+	 *
+	 * @param bodies The body store
+	 * @param i The index of the body
+	 */
+	private void computeAcceleration(BodyStore bodies, int i) {
+		double xi = bodies.positionX[i];
+		double yi = bodies.positionY[i];
+		double thetaSquared = theta * theta;
+		double ax = 0, ay = 0;
+		long count = 0;
+
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (nodeMass[node] == 0)
+				continue;
+
+			if (firstChild[node] < 0) {
+				// Sum the bodies in a leaf directly
+				for (int body = firstBody[node]; body >= 0; body = nextBody[body]) {
+					if (body == i) continue;
+					double dx = bodies.positionX[body] - xi;
+					double dy = bodies.positionY[body] - yi;
+					double distanceSquared = dx * dx + dy * dy;
+					if (distanceSquared == 0) continue;
+					double scale = bodies.mass[body] / (distanceSquared * Math.sqrt(distanceSquared));
+					ax += dx * scale;
+					ay += dy * scale;
+					count++;
+				}
+				continue;
+			}
+
+			double dx = massX[node] - xi;
+			double dy = massY[node] - yi;
+			double distanceSquared = dx * dx + dy * dy;
+			double width = halfWidth[node] * 2;
+			// Nodes containing the body are always opened so it never attracts itself
+			boolean containsBody = Math.abs(xi - centerX[node]) <= halfWidth[node] && Math.abs(yi - centerY[node]) <= halfWidth[node];
+			if (!containsBody && width * width < thetaSquared * distanceSquared) {
+				double scale = nodeMass[node] / (distanceSquared * Math.sqrt(distanceSquared));
+				ax += dx * scale;
+				ay += dy * scale;
+				count++;
+			} else {
+				for (int child = firstChild[node]; child < firstChild[node] + 4; child++)
+					stack[top++] = child;
+			}
+		}
+
+		bodies.accelerationX[i] = ax * DirectSolver.G_PER_AU_SQUARED;
+		bodies.accelerationY[i] = ay * DirectSolver.G_PER_AU_SQUARED;
+		interactions += count;
+	}
+
+	@Override
+	public long getInteractions(BodyStore bodies) {
+		return interactions;
+	}
+
+	public double getTheta() {
+		return theta;
+	}
+
+	public void setTheta(double theta) {
+		if (theta < 0)
+			throw new IllegalArgumentException("Opening angle must not be negative: " + theta);
+		this.theta = theta;
+	}
+}
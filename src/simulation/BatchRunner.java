@@ -0,0 +1,317 @@
+package simulation;
+
+import entities.Entity;
+import util.XMLReader;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs a simulation without a display, for machines with no graphics.
+ * Loads a system file, advances it to a target time as fast as possible and writes the final state of every body
+ * along with throughput figures. Nothing here touches OpenGL, as entities only load their models when rendered.
+ * <p>
+ * Throughput is counted from the work actually done: steps as the integrator takes them, force evaluations
+ * as calls to the gravity solver, and interactions as the solver reports them, so multi-stage integrators and
+ * approximate solvers are not credited with work they did not do. The Hermite integrator sums forces itself,
+ * one body at a time, and each of its single body evaluations counts as a share of a force evaluation.
+ * <p>
+ * Usage: <code>BatchRunner system.xml years [output] [solver] [integrator] [mode] [windows]</code>
+ * <ul>
+ *     <li>output is a file to write the final states to, or - for the console, which is the default</li>
+ *     <li>solver is one of direct, parallel, lane, tiled, barnes-hut or multipole, direct by default</li>
+ *     <li>integrator is one of leapfrog, yoshida, hermite, wisdom-holman, ias15 or euler, leapfrog by default</li>
+ *     <li>mode is megno to follow a tangent vector alongside the system and report how chaotic its motion is,
+ *     see {@link MegnoIntegrator}, or parareal to integrate windows of the run at the same time, see {@link Parareal}.
+ *     A sequential run of the same system is timed before a parareal run to measure the speedup. Runs of a second
+ *     or two are dominated by compiling the code, so only longer runs give a meaningful figure</li>
+ *     <li>windows is the number of windows to split a parareal run into, or auto to choose from the cost of the run,
+ *     which is the default</li>
+ * </ul>
+ */
+public class BatchRunner {
+
+	/**
+	 * Seconds in a year, the same 365 day year shown in the title bar
+	 */
+	private static final double SECONDS_PER_YEAR = 31536000;
+	/**
+	 * Simulated time to advance between progress reports in seconds
+	 */
+	private static final double REPORT_INTERVAL = SECONDS_PER_YEAR;
+
+	/**
+	 * Every stepper used in the run, so the work they did can be totalled at the end.
+	 * Parareal windows create their own steppers on other threads.
+	 */
+	private static final List<Stepper> steppers = Collections.synchronizedList(new ArrayList<>());
+
+	/**
+	 * The batch runner's entry point
+	 *
+	 * @param args The system file, the number of years to simulate, and optionally the output file, solver, integrator,
+	 *             mode and parareal windows
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: BatchRunner system.xml years [output] [solver] [integrator] [mode] [windows]");
+			System.exit(1);
+		}
+		List<Entity> entities = XMLReader.loadSystem(new File(args[0]));
+		BodyStore bodies = entities.get(0).getBodies();
+		double target = Double.parseDouble(args[1]) * SECONDS_PER_YEAR;
+		String solverName = args.length > 3 ? args[3] : "direct", integratorName = args.length > 4 ? args[4] : "leapfrog";
+		String mode = args.length > 5 ? args[5] : "";
+		GravitySolver solver = getSolver(solverName);
+		Integrator integrator = getIntegrator(integratorName);
+		System.out.println("Simulating " + bodies.size() + " bodies for " + args[1] + " years using "
+				+ solver.getClass().getSimpleName() + " and " + integrator.getClass().getSimpleName());
+		solver = new CountingSolver(solver);
+		MegnoIntegrator megno = null;
+		Parareal parareal = null;
+		switch (mode) {
+			case "":
+				break;
+			case "megno":
+				megno = new MegnoIntegrator(integrator);
+				integrator = megno;
+				break;
+			case "parareal":
+				int windows = args.length > 6 && !args[6].equals("auto") ? Integer.parseInt(args[6]) : Parareal.AUTOMATIC;
+				parareal = new Parareal(() -> record(new Stepper(new CountingSolver(getSolver(solverName)), getIntegrator(integratorName))),
+						() -> new Stepper(new DirectSolver(), new WisdomHolmanIntegrator()), windows, Runtime.getRuntime().availableProcessors());
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown mode: " + mode);
+		}
+		Stepper stepper = record(new Stepper(solver, integrator));
+
+		BodyStore sequential = null;
+		double sequentialSeconds = 0;
+		if (parareal != null) {
+			// Timed first, so the parareal run is not slowed by compiling the code they share
+			sequential = new BodyStore(bodies.size);
+			sequential.copyFrom(bodies);
+			sequentialSeconds = timeSequential(sequential, target, getSolver(solverName), getIntegrator(integratorName));
+		}
+
+		TimestepController timestepController = new TimestepController();
+		long steps = 0;
+		double time = 0;
+		long start = System.nanoTime();
+		// Work done choosing parareal windows, which is timed but not counted as part of the run
+		double[] probeWork = new double[2];
+		if (parareal != null) {
+			int windows = parareal.getWindows() == Parareal.AUTOMATIC ? parareal.chooseWindows(bodies, target) : parareal.getWindows();
+			probeWork = countWork(bodies.size);
+			// Progress can only be reported once the whole run has settled
+			int iterations = parareal.advance(bodies, target, windows);
+			steps = parareal.getFineSteps();
+			time = target;
+			System.out.println(String.format(Locale.ROOT, "%.1f years, %d steps, %d iterations over %d windows",
+					time / SECONDS_PER_YEAR, steps, iterations, parareal.getWindowsUsed()));
+		}
+		while (time < target) {
+			double delta = Math.min(REPORT_INTERVAL, target - time);
+			steps += timestepController.advance(stepper, bodies, delta);
+			time += delta;
+			if (megno != null)
+				System.out.println(String.format(Locale.ROOT, "%.1f years, %d steps, MEGNO %.3f, Lyapunov time %.4g years",
+						time / SECONDS_PER_YEAR, steps, megno.getMegno(), 1 / (megno.getLyapunov() * SECONDS_PER_YEAR)));
+			else
+				System.out.println(String.format(Locale.ROOT, "%.1f years, %d steps", time / SECONDS_PER_YEAR, steps));
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		double[] work = countWork(bodies.size);
+		double evaluations = work[0] - probeWork[0], interactions = work[1] - probeWork[1];
+		System.out.println(String.format(Locale.ROOT, "Finished in %.3f s: %.4g simulated years/s, %.0f steps/s, "
+						+ "%.0f force evaluations/s, %.4g interactions/s", seconds, time / SECONDS_PER_YEAR / seconds,
+				steps / seconds, evaluations / seconds, interactions / seconds));
+		if (parareal != null)
+			System.out.println(String.format(Locale.ROOT, "Sequential run took %.3f s: parareal speedup %.2fx on %d threads, "
+							+ "largest difference %.3g AU", sequentialSeconds, sequentialSeconds / seconds,
+					Runtime.getRuntime().availableProcessors(), largestDifference(bodies, sequential)));
+
+		try {
+			writeStates(entities, args.length > 2 ? args[2] : "-");
+		} catch (FileNotFoundException e) {
+			System.err.println("Could not write to " + args[2]);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Advance bodies sequentially, as a run without a mode would, and time it
+	 *
+	 * @param bodies The bodies to advance
+	 * @param target Simulated time to advance by in seconds
+	 * @param solver The gravity solver to use
+	 * @param integrator The integrator to use
+	 * @return Wall clock time taken in seconds
+	 */
+	private static double timeSequential(BodyStore bodies, double target, GravitySolver solver, Integrator integrator) {
+		Stepper stepper = new Stepper(solver, integrator);
+		TimestepController timestepController = new TimestepController();
+		long start = System.nanoTime();
+		for (double time = 0; time < target; time += REPORT_INTERVAL)
+			timestepController.advance(stepper, bodies, Math.min(REPORT_INTERVAL, target - time));
+		return (System.nanoTime() - start) / 1e9;
+	}
+
+	/**
+	 * Find the largest distance between the positions of the same body in two stores
+	 *
+	 * @param a The first store
+	 * @param b The second store, the same size as the first
+	 * @return The largest distance in AU
+	 */
+	private static double largestDifference(BodyStore a, BodyStore b) {
+		double difference = 0;
+		for (int i = 0; i < a.size; i++)
+			difference = Math.max(difference, Math.hypot(a.positionX[i] - b.positionX[i], a.positionY[i] - b.positionY[i]));
+		return difference;
+	}
+
+	/**
+	 * Total the work done so far by every stepper used
+	 *
+	 * @param size Number of bodies
+	 * @return The number of force evaluations and the number of interactions
+	 */
+	private static double[] countWork(int size) {
+		double evaluations = 0, interactions = 0;
+		synchronized (steppers) {
+			for (Stepper used : steppers) {
+				CountingSolver counted = (CountingSolver) used.getSolver();
+				evaluations += counted.evaluations;
+				interactions += counted.interactions;
+				Integrator inner = used.getIntegrator() instanceof MegnoIntegrator
+						? ((MegnoIntegrator) used.getIntegrator()).getIntegrator() : used.getIntegrator();
+				if (inner instanceof HermiteIntegrator) {
+					long single = ((HermiteIntegrator) inner).getEvaluations();
+					evaluations += (double) single / size;
+					interactions += (double) single * (size - 1);
+				}
+			}
+		}
+		return new double[]{evaluations, interactions};
+	}
+
+	/**
+	 * Remember a stepper so the work it does is counted
+	 *
+	 * @param stepper The stepper, whose solver must be a counting solver
+	 * @return The stepper
+	 */
+	private static Stepper record(Stepper stepper) {
+		steppers.add(stepper);
+		return stepper;
+	}
+
+	/**
+	 * Write the position, velocity and mass of every body as comma separated values
+	 *
+	 * @param entities The entities to write
+	 * @param path File to write to, or - for the console
+	 * @throws FileNotFoundException If the file cannot be opened
+	 */
+	private static void writeStates(List<Entity> entities, String path) throws FileNotFoundException {
+		PrintStream out = path.equals("-") ? System.out : new PrintStream(path);
+		out.println("name,x (AU),y (AU),x velocity (m/s),y velocity (m/s),mass (kg)");
+		for (Entity entity : entities) {
+			BodyStore bodies = entity.getBodies();
+			int i = entity.getIndex();
+			out.println(entity.getName() + ',' + bodies.getPositionX(i) + ',' + bodies.getPositionY(i) + ','
+					+ bodies.getVelocityX(i) + ',' + bodies.getVelocityY(i) + ',' + bodies.getMass(i));
+		}
+		if (out != System.out)
+			out.close();
+	}
+
+	/**
+	 * Create a gravity solver from its name
+	 *
+	 * @param name The solver's name
+	 * @return The solver
+	 */
+	private static GravitySolver getSolver(String name) {
+		switch (name) {
+			case "direct":
+				return new DirectSolver();
+			case "parallel":
+				return new ParallelDirectSolver();
+			case "lane":
+				return LaneDirectSolver.create();
+			case "tiled":
+				return new TiledDirectSolver();
+			case "barnes-hut":
+				return new BarnesHutSolver();
+			case "multipole":
+				return new FastMultipoleSolver();
+			default:
+				throw new IllegalArgumentException("Unknown solver: " + name);
+		}
+	}
+
+	/**
+	 * Create an integrator from its name
+	 *
+	 * @param name The integrator's name
+	 * @return The integrator
+	 */
+	private static Integrator getIntegrator(String name) {
+		switch (name) {
+			case "leapfrog":
+				return new LeapfrogIntegrator();
+			case "yoshida":
+				return new YoshidaIntegrator();
+			case "hermite":
+				return new HermiteIntegrator();
+			case "wisdom-holman":
+				return new WisdomHolmanIntegrator();
+			case "ias15":
+				return new IAS15Integrator();
+			case "euler":
+				return new EulerIntegrator();
+			default:
+				throw new IllegalArgumentException("Unknown integrator: " + name);
+		}
+	}
+
+	/**
+	 * Gravity solver that counts the calls to another solver and the interactions it reports calculating
+	 */
+	private static class CountingSolver implements GravitySolver {
+
+		/**
+		 * The solver doing the work
+		 */
+		private final GravitySolver solver;
+		/**
+		 * Number of calls and number of interactions calculated across them
+		 */
+		private long evaluations, interactions;
+
+		private CountingSolver(GravitySolver solver) {
+			this.solver = solver;
+		}
+
+		@Override
+		public void computeAccelerations(BodyStore bodies) {
+			solver.computeAccelerations(bodies);
+			evaluations++;
+			interactions += solver.getInteractions(bodies);
+		}
+
+		@Override
+		public long getInteractions(BodyStore bodies) {
+			return solver.getInteractions(bodies);
+		}
+	}
+}
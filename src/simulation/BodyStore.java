@@ -0,0 +1,307 @@
+package simulation;
+
+import maths.Physics;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Stores the physical state of every body in a system as parallel arrays of primitives.
+ * Positions are in AU, velocities in m/s, accelerations in m/s^2 and masses in kg.
+ * The x and y components are on the simulation plane, which is the x/z plane when rendered.
+ */
+public class BodyStore {
+
+	/**
+	 * Number of bodies to make room for when no capacity is given
+	 */
+	private static final int DEFAULT_CAPACITY = 16;
+	/**
+	 * Number of bodies handled by each task when moving bodies in parallel
+	 */
+	private static final int SLICE_SIZE = 1 << 14;
+
+	/**
+	 * Number of bodies in the store
+	 */
+	int size;
+	/**
+	 * Position of each body in AU
+	 */
+	double[] positionX, positionY;
+	/**
+	 * Velocity of each body in meters per second
+	 */
+	double[] velocityX, velocityY;
+	/**
+	 * Acceleration of each body in meters per second squared, as of the last step
+	 */
+	double[] accelerationX, accelerationY;
+	/**
+	 * Mass of each body in kg
+	 */
+	double[] mass;
+	/**
+	 * True if the accelerations were calculated from the current positions and masses
+	 */
+	private boolean accelerationsCurrent;
+
+	/**
+	 * Create an empty body store
+	 */
+	public BodyStore() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create an empty body store with room for a number of bodies
+	 *
+	 * @param capacity Number of bodies to allocate space for
+	 */
+	public BodyStore(int capacity) {
+		capacity = Math.max(capacity, 1);
+		positionX = new double[capacity];
+		positionY = new double[capacity];
+		velocityX = new double[capacity];
+		velocityY = new double[capacity];
+		accelerationX = new double[capacity];
+		accelerationY = new double[capacity];
+		mass = new double[capacity];
+	}
+
+	/**
+	 * Add a body to the store
+	 *
+	 * @param x x position in AU
+	 * @param y y position in AU
+	 * @param velocityX x velocity in m/s
+	 * @param velocityY y velocity in m/s
+	 * @param mass Mass in kg
+	 * @return The index of the new body
+	 */
+	public int add(double x, double y, double velocityX, double velocityY, double mass) {
+		if (size == positionX.length)
+			grow(size * 2);
+		positionX[size] = x;
+		positionY[size] = y;
+		this.velocityX[size] = velocityX;
+		this.velocityY[size] = velocityY;
+		this.mass[size] = mass;
+		accelerationsCurrent = false;
+		return size++;
+	}
+
+	/**
+	 * Resize every array to a new capacity
+	 *
+	 * @param capacity The new capacity
+	 */
+	private void grow(int capacity) {
+		positionX = Arrays.copyOf(positionX, capacity);
+		positionY = Arrays.copyOf(positionY, capacity);
+		velocityX = Arrays.copyOf(velocityX, capacity);
+		velocityY = Arrays.copyOf(velocityY, capacity);
+		accelerationX = Arrays.copyOf(accelerationX, capacity);
+		accelerationY = Arrays.copyOf(accelerationY, capacity);
+		mass = Arrays.copyOf(mass, capacity);
+	}
+
+	/**
+	 * Replace the contents of the store with a copy of another store
+	 *
+	 * @param other The store to copy
+	 */
+	public void copyFrom(BodyStore other) {
+		if (positionX.length < other.size)
+			grow(other.size);
+		size = other.size;
+		System.arraycopy(other.positionX, 0, positionX, 0, size);
+		System.arraycopy(other.positionY, 0, positionY, 0, size);
+		System.arraycopy(other.velocityX, 0, velocityX, 0, size);
+		System.arraycopy(other.velocityY, 0, velocityY, 0, size);
+		System.arraycopy(other.accelerationX, 0, accelerationX, 0, size);
+		System.arraycopy(other.accelerationY, 0, accelerationY, 0, size);
+		System.arraycopy(other.mass, 0, mass, 0, size);
+		accelerationsCurrent = other.accelerationsCurrent;
+	}
+
+	/**
+	 * Replace the contents of the store with a saved state
+	 *
+	 * @param state The state to copy
+	 */
+	public void copyFrom(SystemState state) {
+		if (positionX.length < state.size)
+			grow(state.size);
+		size = state.size;
+		System.arraycopy(state.positionX, 0, positionX, 0, size);
+		System.arraycopy(state.positionY, 0, positionY, 0, size);
+		System.arraycopy(state.velocityX, 0, velocityX, 0, size);
+		System.arraycopy(state.velocityY, 0, velocityY, 0, size);
+		System.arraycopy(state.mass, 0, mass, 0, size);
+		accelerationsCurrent = false;
+	}
+
+	/**
+	 * Calculate every body's acceleration and remember that they match the current positions
+	 *
+	 * @param solver The solver to calculate accelerations with
+	 */
+	public void computeAccelerations(GravitySolver solver) {
+		solver.computeAccelerations(this);
+		accelerationsCurrent = true;
+	}
+
+	/**
+	 * Change the velocity of every body based off its acceleration
+	 *
+	 * @param delta Time to advance by in seconds
+	 */
+	public void kick(double delta) {
+		forEachSlice((from, to) -> {
+			for (int i = from; i < to; i++) {
+				velocityX[i] += accelerationX[i] * delta;
+				velocityY[i] += accelerationY[i] * delta;
+			}
+		});
+	}
+
+	/**
+	 * Change the position of every body based off its velocity, converting from meters to AU
+	 *
+	 * @param delta Time to advance by in seconds
+	 */
+	public void drift(double delta) {
+		accelerationsCurrent = false;
+		forEachSlice((from, to) -> {
+			for (int i = from; i < to; i++) {
+				positionX[i] += velocityX[i] * delta / Physics.METERS_PER_AU;
+				positionY[i] += velocityY[i] * delta / Physics.METERS_PER_AU;
+			}
+		});
+	}
+
+	/**
+	 * Change the velocity of every body based off its acceleration, then its position based off the new velocity
+	 *
+	 * @param delta Time to advance by in seconds
+	 */
+	public void kickDrift(double delta) {
+		accelerationsCurrent = false;
+		forEachSlice((from, to) -> {
+			for (int i = from; i < to; i++) {
+				velocityX[i] += accelerationX[i] * delta;
+				velocityY[i] += accelerationY[i] * delta;
+				positionX[i] += velocityX[i] * delta / Physics.METERS_PER_AU;
+				positionY[i] += velocityY[i] * delta / Physics.METERS_PER_AU;
+			}
+		});
+	}
+
+	/**
+	 * Run an action over every body, splitting large stores across the common fork/join pool
+	 *
+	 * @param action The action to run
+	 */
+	private void forEachSlice(RangeTask.RangeAction action) {
+		if (size <= SLICE_SIZE)
+			action.apply(0, size);
+		else
+			RangeTask.invoke(ForkJoinPool.commonPool(), size, SLICE_SIZE, action);
+	}
+
+	/**
+	 * Check if the stored accelerations were calculated from the current positions and masses
+	 *
+	 * @return True if the accelerations are current, otherwise false
+	 */
+	public boolean hasCurrentAccelerations() {
+		return accelerationsCurrent;
+	}
+
+	/**
+	 * Write the position, velocity and mass of every body to a buffer as five columns,
+	 * x positions, y positions, x velocities, y velocities then masses, each holding every body in order
+	 *
+	 * @param buffer The buffer to write to from its position, which is moved past the columns
+	 */
+	public void write(ByteBuffer buffer) {
+		DoubleBuffer columns = buffer.asDoubleBuffer();
+		columns.put(positionX, 0, size);
+		columns.put(positionY, 0, size);
+		columns.put(velocityX, 0, size);
+		columns.put(velocityY, 0, size);
+		columns.put(mass, 0, size);
+		buffer.position(buffer.position() + columns.position() * Double.BYTES);
+	}
+
+	/**
+	 * Replace the contents of the store with columns written by {@link #write(ByteBuffer)}
+	 *
+	 * @param buffer The buffer to read from its position, which is moved past the columns
+	 * @param count Number of bodies in the columns
+	 */
+	public void read(ByteBuffer buffer, int count) {
+		if (positionX.length < count)
+			grow(count);
+		DoubleBuffer columns = buffer.asDoubleBuffer();
+		columns.get(positionX, 0, count);
+		columns.get(positionY, 0, count);
+		columns.get(velocityX, 0, count);
+		columns.get(velocityY, 0, count);
+		columns.get(mass, 0, count);
+		buffer.position(buffer.position() + columns.position() * Double.BYTES);
+		size = count;
+		accelerationsCurrent = false;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public double getPositionX(int index) {
+		return positionX[index];
+	}
+
+	public double getPositionY(int index) {
+		return positionY[index];
+	}
+
+	public void setPosition(int index, double x, double y) {
+		positionX[index] = x;
+		positionY[index] = y;
+		accelerationsCurrent = false;
+	}
+
+	public double getVelocityX(int index) {
+		return velocityX[index];
+	}
+
+	public double getVelocityY(int index) {
+		return velocityY[index];
+	}
+
+	public void setVelocity(int index, double x, double y) {
+		velocityX[index] = x;
+		velocityY[index] = y;
+	}
+
+	public double getAccelerationX(int index) {
+		return accelerationX[index];
+	}
+
+	public double getAccelerationY(int index) {
+		return accelerationY[index];
+	}
+
+	public double getMass(int index) {
+		return mass[index];
+	}
+
+	public void setMass(int index, double mass) {
+		this.mass[index] = mass;
+		accelerationsCurrent = false;
+	}
+}
@@ -0,0 +1,64 @@
+package simulation;
+
+import maths.Physics;
+
+/**
+ * Direct summation gravity solver.
+ * Sums the pull of every other body on each body, taking O(N^2) time. Exact to rounding error.
+ */
+public class DirectSolver implements GravitySolver {
+
+	/**
+	 * Converts G * kg / AU^2 into m/s^2
+	 */
+	static final double G_PER_AU_SQUARED = Physics.G / (Physics.METERS_PER_AU * Physics.METERS_PER_AU);
+
+	@Override
+	public void computeAccelerations(BodyStore bodies) {
+		computeAccelerations(bodies, 0, bodies.size);
+	}
+
+	/**
+	 * Calculate the accelerations of a range of bodies, summing the pull of every body in the store
+	 *
+	 * @param bodies The body store
+	 * @param from Index of the first body in the range
+	 * @param to Index after the last body in the range
+	 */
+	static void computeAccelerations(BodyStore bodies, int from, int to) {
+		double[] positionX = bodies.positionX, positionY = bodies.positionY, mass = bodies.mass;
+		int size = bodies.size;
+		for (int i = from; i < to; i++) {
+			double xi = positionX[i];
+			double yi = positionY[i];
+			double ax = 0, ay = 0;
+			for (int j = 0; j < size; j++) {
+				if (j == i) continue;
+				double dx = positionX[j] - xi;
+				double dy = positionY[j] - yi;
+				double distanceSquared = dx * dx + dy * dy;
+				double scale = mass[j] / (distanceSquared * Math.sqrt(distanceSquared));
+				ax += dx * scale;
+				ay += dy * scale;
+			}
+			bodies.accelerationX[i] = ax * G_PER_AU_SQUARED;
+			bodies.accelerationY[i] = ay * G_PER_AU_SQUARED;
+		}
+	}
+
+	/**
+	 * Calculate the acceleration of one body without storing it
+	 *
+	 * @param bodies The body store
+	 * @param i The index of the body
+	 * @param result Array to put the x and y acceleration in m/s^2 into
+	 */
+	static void computeAcceleration(BodyStore bodies, int i, double[] result) {
+		double ax = bodies.accelerationX[i], ay = bodies.accelerationY[i];
+		computeAccelerations(bodies, i, i + 1);
+		result[0] = bodies.accelerationX[i];
+		result[1] = bodies.accelerationY[i];
+		bodies.accelerationX[i] = ax;
+		bodies.accelerationY[i] = ay;
+	}
+}
@@ -0,0 +1,15 @@
+package simulation;
+
+/**
+ * Symplectic Euler integrator.
+ * Kicks every body with the accelerations at the start of the step, then drifts it with the new velocity.
+ * First order, so it needs far smaller steps than the other integrators for the same accuracy.
+ */
+public class EulerIntegrator implements Integrator {
+
+	@Override
+	public void step(BodyStore bodies, GravitySolver solver, double delta) {
+		bodies.computeAccelerations(solver);
+		bodies.kickDrift(delta);
+	}
+}
@@ -0,0 +1,559 @@
+package simulation;
+
+import java.util.Arrays;
+
+/**
+ * Fast multipole method gravity solver.
+ * Bodies are sorted into an adaptive quadtree with up to a set number of bodies per leaf.
+ * Each cell's mass is described by a Cartesian multipole expansion of the 1/r potential about its centre of mass,
+ * and well separated pairs of cells interact through local expansions, giving O(N) time.
+ * The error falls as the expansion order rises and as the opening angle shrinks.
+ * Positions stay in AU and masses in kg, with G applied at the end, so the results match direct summation's units.
+ */
+public class FastMultipoleSolver implements GravitySolver {
+
+	/**
+	 * Expansion order used when none is given
+	 */
+	public static final int DEFAULT_ORDER = 6;
+	/**
+	 * Largest number of bodies in a leaf used when none is given
+	 */
+	public static final int DEFAULT_LEAF_SIZE = 32;
+	/**
+	 * Opening angle used when none is given
+	 */
+	public static final double DEFAULT_THETA = 0.5;
+	/**
+	 * Maximum depth of the tree, bodies closer together than this allows share a leaf however many there are
+	 */
+	private static final int MAX_DEPTH = 48;
+
+	/**
+	 * Highest order of the multipole and local expansions
+	 */
+	private final int order;
+	/**
+	 * Number of coefficients in an expansion, (order + 1) * (order + 2) / 2
+	 */
+	private final int terms;
+	/**
+	 * Largest number of bodies in a leaf
+	 */
+	private final int leafSize;
+	/**
+	 * Two cells interact through their expansions if the sum of their radii is less than theta times their distance
+	 */
+	private double theta;
+
+	/**
+	 * Exponents (a, b) of x^a * y^b for each coefficient index
+	 */
+	private final int[] exponentX, exponentY;
+
+	/**
+	 * Bodies in tree order, each cell owns a contiguous range of it
+	 */
+	private int[] treeOrder = new int[0];
+	/**
+	 * Number of cells in the tree
+	 */
+	private int cellCount;
+	/**
+	 * Range of tree ordered bodies owned by each cell
+	 */
+	private int[] start = new int[0], end = new int[0];
+	/**
+	 * Index of each cell's first child, -1 for leaves. Children are stored next to each other.
+	 */
+	private int[] firstChild = new int[0];
+	/**
+	 * Number of children of each cell
+	 */
+	private int[] childCount = new int[0];
+	/**
+	 * Expansion centre of each cell and the distance from it to the cell's furthest body, in AU
+	 */
+	private double[] centerX = new double[0], centerY = new double[0], radius = new double[0];
+	/**
+	 * Multipole and local expansion coefficients, terms per cell
+	 */
+	private double[] multipole = new double[0], local = new double[0];
+
+	/**
+	 * Scratch space for powers, derivatives of 1/r and the recurrence used to find them
+	 */
+	private final double[] powersX, powersY, derivatives, recurrence;
+	/**
+	 * Number of pulls between pairs of bodies and between pairs of cells calculated in the last call
+	 * to computeAccelerations, each pair counting once in each direction
+	 */
+	private long interactions;
+
+	/**
+	 * Create a fast multipole solver with the default order, leaf size and opening angle
+	 */
+	public FastMultipoleSolver() {
+		this(DEFAULT_ORDER, DEFAULT_LEAF_SIZE, DEFAULT_THETA);
+	}
+
+	/**
+	 * Create a fast multipole solver
+	 *
+	 * @param order Highest order of the expansions, higher is more accurate but slower
+	 * @param leafSize Largest number of bodies in a leaf before it is split
+	 * @param theta The opening angle, smaller is more accurate but slower
+	 */
+	public FastMultipoleSolver(int order, int leafSize, double theta) {
+		if (order < 1)
+			throw new IllegalArgumentException("Expansion order must be at least 1: " + order);
+		if (leafSize < 1)
+			throw new IllegalArgumentException("Leaf size must be at least 1: " + leafSize);
+		this.order = order;
+		this.leafSize = leafSize;
+		setTheta(theta);
+
+		terms = (order + 1) * (order + 2) / 2;
+		exponentX = new int[terms];
+		exponentY = new int[terms];
+		for (int n = 0; n <= order; n++)
+			for (int b = 0; b <= n; b++) {
+				exponentX[index(n - b, b)] = n - b;
+				exponentY[index(n - b, b)] = b;
+			}
+
+		powersX = new double[order + 1];
+		powersY = new double[order + 1];
+		derivatives = new double[terms];
+		recurrence = new double[(order + 1) * terms];
+	}
+
+	/**
+	 * Index of the coefficient of x^a * y^b
+	 *
+	 * @param a Power of x
+	 * @param b Power of y
+	 * @return The coefficient's index
+	 */
+	private static int index(int a, int b) {
+		int n = a + b;
+		return n * (n + 1) / 2 + b;
+	}
+
+	@Override
+	public void computeAccelerations(BodyStore bodies) {
+		int size = bodies.size;
+		Arrays.fill(bodies.accelerationX, 0, size, 0);
+		Arrays.fill(bodies.accelerationY, 0, size, 0);
+		interactions = 0;
+		if (size == 0)
+			return;
+
+		buildTree(bodies);
+		upwardPass(bodies, 0);
+		Arrays.fill(local, 0, cellCount * terms, 0);
+		interact(bodies, 0, 0);
+		downwardPass(bodies, 0);
+
+		for (int i = 0; i < size; i++) {
+			bodies.accelerationX[i] *= DirectSolver.G_PER_AU_SQUARED;
+			bodies.accelerationY[i] *= DirectSolver.G_PER_AU_SQUARED;
+		}
+	}
+
+	/**
+	 * Sort the bodies into a quadtree
+	 *
+	 * @param bodies The bodies to sort
+	 */
+	private void buildTree(BodyStore bodies) {
+		int size = bodies.size;
+		if (treeOrder.length < size)
+			treeOrder = new int[size];
+		for (int i = 0; i < size; i++)
+			treeOrder[i] = i;
+
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < size; i++) {
+			minX = Math.min(minX, bodies.positionX[i]);
+			minY = Math.min(minY, bodies.positionY[i]);
+			maxX = Math.max(maxX, bodies.positionX[i]);
+			maxY = Math.max(maxY, bodies.positionY[i]);
+		}
+		cellCount = 0;
+		ensureCellCapacity(Math.max(16, size / Math.max(1, leafSize) * 3));
+		createCell(0, size);
+		split(bodies, 0, (minX + maxX) / 2, (minY + maxY) / 2, Math.max(maxX - minX, maxY - minY) / 2, 0);
+	}
+
+	/**
+	 * Split a cell into its non-empty quadrants if it holds too many bodies, then split those in turn
+	 *
+	 * @param bodies The body store
+	 * @param cell The cell to split
+	 * @param x x position of the centre of the cell's square in AU
+	 * @param y y position of the centre of the cell's square in AU
+	 * @param half Half of the width of the cell's square in AU
+	 * @param depth Depth of the cell in the tree
+	 */
+	private void split(BodyStore bodies, int cell, double x, double y, double half, int depth) {
+		int from = start[cell], to = end[cell];
+		if (to - from <= leafSize || depth >= MAX_DEPTH)
+			return;
+
+		// Partition the cell's bodies by y, then each half by x, giving the four quadrants in order
+		int middle = partition(bodies.positionY, from, to, y);
+		int[] bounds = {from, partition(bodies.positionX, from, middle, x), middle, partition(bodies.positionX, middle, to, x), to};
+
+		int first = cellCount;
+		for (int quadrant = 0; quadrant < 4; quadrant++)
+			if (bounds[quadrant + 1] > bounds[quadrant])
+				createCell(bounds[quadrant], bounds[quadrant + 1]);
+		firstChild[cell] = first;
+		childCount[cell] = cellCount - first;
+
+		double quarter = half / 2;
+		int child = first;
+		for (int quadrant = 0; quadrant < 4; quadrant++)
+			if (bounds[quadrant + 1] > bounds[quadrant])
+				split(bodies, child++, x + ((quadrant & 1) == 0 ? -quarter : quarter), y + ((quadrant & 2) == 0 ? -quarter : quarter), quarter, depth + 1);
+	}
+
+	/**
+	 * Reorder a range of the tree ordered bodies so those with a coordinate below a value come first
+	 *
+	 * @param coordinate The coordinate to partition by, indexed by body
+	 * @param from Start of the range
+	 * @param to End of the range
+	 * @param value The value to partition around
+	 * @return Index of the first body whose coordinate is at least the value
+	 */
+	private int partition(double[] coordinate, int from, int to, double value) {
+		int low = from, high = to - 1;
+		while (low <= high) {
+			if (coordinate[treeOrder[low]] < value) {
+				low++;
+			} else {
+				int swap = treeOrder[low];
+				treeOrder[low] = treeOrder[high];
+				treeOrder[high--] = swap;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Create a leaf owning a range of the tree ordered bodies
+	 *
+	 * @param from Start of the range
+	 * @param to End of the range
+	 */
+	private void createCell(int from, int to) {
+		if (cellCount == start.length)
+			ensureCellCapacity(cellCount * 2);
+		start[cellCount] = from;
+		end[cellCount] = to;
+		firstChild[cellCount] = -1;
+		childCount[cellCount] = 0;
+		cellCount++;
+	}
+
+	/**
+	 * Make sure the cell arrays can hold a number of cells
+	 *
+	 * @param capacity Number of cells needed
+	 */
+	private void ensureCellCapacity(int capacity) {
+		if (capacity <= start.length)
+			return;
+		start = Arrays.copyOf(start, capacity);
+		end = Arrays.copyOf(end, capacity);
+		firstChild = Arrays.copyOf(firstChild, capacity);
+		childCount = Arrays.copyOf(childCount, capacity);
+		centerX = Arrays.copyOf(centerX, capacity);
+		centerY = Arrays.copyOf(centerY, capacity);
+		radius = Arrays.copyOf(radius, capacity);
+		multipole = Arrays.copyOf(multipole, capacity * terms);
+		local = Arrays.copyOf(local, capacity * terms);
+	}
+
+	/**
+	 * Find the expansion centre, radius and multipole expansion of a cell and everything below it
+	 *
+	 * @param bodies The body store
+	 * @param cell The cell to start from
+	 */
+	private void upwardPass(BodyStore bodies, int cell) {
+		int offset = cell * terms;
+		Arrays.fill(multipole, offset, offset + terms, 0);
+
+		// Expand about the centre of mass, or the mean position if the cell has no mass
+		double m = 0, x = 0, y = 0, meanX = 0, meanY = 0;
+		for (int k = start[cell]; k < end[cell]; k++) {
+			int i = treeOrder[k];
+			m += bodies.mass[i];
+			x += bodies.mass[i] * bodies.positionX[i];
+			y += bodies.mass[i] * bodies.positionY[i];
+			meanX += bodies.positionX[i];
+			meanY += bodies.positionY[i];
+		}
+		int count = end[cell] - start[cell];
+		centerX[cell] = m > 0 ? x / m : meanX / count;
+		centerY[cell] = m > 0 ? y / m : meanY / count;
+
+		if (firstChild[cell] < 0) {
+			// Particle to multipole
+			double r = 0;
+			for (int k = start[cell]; k < end[cell]; k++) {
+				int i = treeOrder[k];
+				double dx = bodies.positionX[i] - centerX[cell];
+				double dy = bodies.positionY[i] - centerY[cell];
+				r = Math.max(r, Math.sqrt(dx * dx + dy * dy));
+				powers(-dx, -dy);
+				for (int t = 0; t < terms; t++)
+					multipole[offset + t] += bodies.mass[i] * powersX[exponentX[t]] * powersY[exponentY[t]];
+			}
+			radius[cell] = r;
+			return;
+		}
+
+		double r = 0;
+		for (int child = firstChild[cell]; child < firstChild[cell] + childCount[cell]; child++) {
+			upwardPass(bodies, child);
+			// Multipole to multipole, shifting the child's expansion to this cell's centre
+			double sx = centerX[child] - centerX[cell];
+			double sy = centerY[child] - centerY[cell];
+			r = Math.max(r, Math.sqrt(sx * sx + sy * sy) + radius[child]);
+			powers(-sx, -sy);
+			int childOffset = child * terms;
+			for (int t = 0; t < terms; t++) {
+				int a = exponentX[t], b = exponentY[t];
+				double sum = 0;
+				for (int i = 0; i <= a; i++)
+					for (int j = 0; j <= b; j++)
+						sum += multipole[childOffset + index(i, j)] * powersX[a - i] * powersY[b - j];
+				multipole[offset + t] += sum;
+			}
+		}
+		radius[cell] = r;
+	}
+
+	/**
+	 * Find the interactions between two cells, or within one cell if both are the same
+	 *
+	 * @param bodies The body store
+	 * @param a The first cell
+	 * @param b The second cell
+	 */
+	private void interact(BodyStore bodies, int a, int b) {
+		if (a == b) {
+			if (firstChild[a] < 0) {
+				particleToParticle(bodies, a, a);
+				return;
+			}
+			int first = firstChild[a], last = first + childCount[a];
+			for (int i = first; i < last; i++)
+				for (int j = i; j < last; j++)
+					interact(bodies, i, j);
+			return;
+		}
+
+		double dx = centerX[a] - centerX[b];
+		double dy = centerY[a] - centerY[b];
+		double distance = Math.sqrt(dx * dx + dy * dy);
+		if (radius[a] + radius[b] < theta * distance) {
+			multipoleToLocal(a, b, dx, dy);
+			return;
+		}
+
+		boolean aLeaf = firstChild[a] < 0, bLeaf = firstChild[b] < 0;
+		if (aLeaf && bLeaf) {
+			particleToParticle(bodies, a, b);
+		} else if (bLeaf || (!aLeaf && radius[a] >= radius[b])) {
+			// Split the larger cell
+			for (int child = firstChild[a]; child < firstChild[a] + childCount[a]; child++)
+				interact(bodies, child, b);
+		} else {
+			for (int child = firstChild[b]; child < firstChild[b] + childCount[b]; child++)
+				interact(bodies, a, child);
+		}
+	}
+
+	/**
+	 * Sum the pull between the bodies of two leaves directly, or between all bodies of one leaf if both are the same
+	 *
+	 * @param bodies The body store
+	 * @param a The first leaf
+	 * @param b The second leaf
+	 */
+	private void particleToParticle(BodyStore bodies, int a, int b) {
+		double[] positionX = bodies.positionX, positionY = bodies.positionY, mass = bodies.mass;
+		double[] accelerationX = bodies.accelerationX, accelerationY = bodies.accelerationY;
+		for (int k = start[a]; k < end[a]; k++) {
+			int i = treeOrder[k];
+			double xi = positionX[i], yi = positionY[i], mi = mass[i];
+			double ax = 0, ay = 0;
+			for (int l = a == b ? k + 1 : start[b]; l < end[b]; l++) {
+				int j = treeOrder[l];
+				double dx = positionX[j] - xi;
+				double dy = positionY[j] - yi;
+				double distanceSquared = dx * dx + dy * dy;
+				if (distanceSquared == 0) continue;
+				double inverseCube = 1 / (distanceSquared * Math.sqrt(distanceSquared));
+				ax += dx * mass[j] * inverseCube;
+				ay += dy * mass[j] * inverseCube;
+				accelerationX[j] -= dx * mi * inverseCube;
+				accelerationY[j] -= dy * mi * inverseCube;
+			}
+			accelerationX[i] += ax;
+			accelerationY[i] += ay;
+		}
+		long count = end[a] - start[a];
+		interactions += a == b ? count * (count - 1) : 2 * count * (end[b] - start[b]);
+	}
+
+	/**
+	 * Add each cell's multipole expansion to the other's local expansion
+	 *
+	 * @param a The first cell
+	 * @param b The second cell
+	 * @param dx x distance from b's centre to a's centre
+	 * @param dy y distance from b's centre to a's centre
+	 */
+	private void multipoleToLocal(int a, int b, double dx, double dy) {
+		computeDerivatives(dx, dy);
+		int aOffset = a * terms, bOffset = b * terms;
+		for (int t = 0; t < terms; t++) {
+			int n = exponentX[t] + exponentY[t];
+			double toA = 0, toB = 0;
+			for (int s = 0; s < terms; s++) {
+				int m = exponentX[s] + exponentY[s];
+				if (n + m > order)
+					break;
+				double derivative = derivatives[index(exponentX[t] + exponentX[s], exponentY[t] + exponentY[s])];
+				toA += multipole[bOffset + s] * derivative;
+				// The derivatives from a to b are those from b to a with the sign flipped on odd orders
+				toB += ((n + m) % 2 == 0 ? 1 : -1) * multipole[aOffset + s] * derivative;
+			}
+			local[aOffset + t] += toA;
+			local[bOffset + t] += toB;
+		}
+		interactions += 2;
+	}
+
+	/**
+	 * Pass local expansions down the tree, then apply them to the bodies in each leaf
+	 *
+	 * @param bodies The body store
+	 * @param cell The cell to start from
+	 */
+	private void downwardPass(BodyStore bodies, int cell) {
+		int offset = cell * terms;
+		if (firstChild[cell] < 0) {
+			// Local to particle, the acceleration is the gradient of the local expansion
+			for (int k = start[cell]; k < end[cell]; k++) {
+				int i = treeOrder[k];
+				powers(bodies.positionX[i] - centerX[cell], bodies.positionY[i] - centerY[cell]);
+				double ax = 0, ay = 0;
+				for (int t = 0; t < terms; t++) {
+					int a = exponentX[t], b = exponentY[t];
+					if (a + b == order)
+						break;
+					double power = powersX[a] * powersY[b];
+					ax += local[offset + index(a + 1, b)] * power;
+					ay += local[offset + index(a, b + 1)] * power;
+				}
+				bodies.accelerationX[i] += ax;
+				bodies.accelerationY[i] += ay;
+			}
+			return;
+		}
+
+		for (int child = firstChild[cell]; child < firstChild[cell] + childCount[cell]; child++) {
+			// Local to local, shifting this cell's expansion to the child's centre
+			powers(centerX[child] - centerX[cell], centerY[child] - centerY[cell]);
+			int childOffset = child * terms;
+			for (int t = 0; t < terms; t++) {
+				int a = exponentX[t], b = exponentY[t];
+				double sum = 0;
+				for (int i = a; i <= order; i++)
+					for (int j = b; i + j <= order; j++)
+						sum += local[offset + index(i, j)] * powersX[i - a] * powersY[j - b];
+				local[childOffset + t] += sum;
+			}
+			downwardPass(bodies, child);
+		}
+	}
+
+	/**
+	 * Fill the power arrays with x^n / n! and y^n / n! for n up to the order
+	 *
+	 * @param x The x value
+	 * @param y The y value
+	 */
+	private void powers(double x, double y) {
+		powersX[0] = 1;
+		powersY[0] = 1;
+		for (int n = 1; n <= order; n++) {
+			powersX[n] = powersX[n - 1] * x / n;
+			powersY[n] = powersY[n - 1] * y / n;
+		}
+	}
+
+	/**
+	 * Fill the derivative array with the partial derivatives of 1/r up to the order at a point on the plane.
+	 * Uses the recurrence R(n; a + 1, b) = x R(n + 1; a, b) + a R(n + 1; a - 1, b), starting from
+	 * R(n; 0, 0) = (-1)^n (2n - 1)!! / r^(2n + 1), where the derivatives are R(0; a, b).
+	 *
+	 * @param x x distance in AU
+	 * @param y y distance in AU
+	 */
+	private void computeDerivatives(double x, double y) {
+		double inverseSquared = 1 / (x * x + y * y);
+		double base = Math.sqrt(inverseSquared);
+		for (int n = 0; n <= order; n++) {
+			recurrence[n * terms] = base;
+			base *= -(2 * n + 1) * inverseSquared;
+		}
+		// Work down from the highest auxiliary order, each level needing one order fewer of derivatives
+		for (int n = order - 1; n >= 0; n--) {
+			int row = n * terms, above = row + terms;
+			for (int t = 1; t < terms; t++) {
+				int a = exponentX[t], b = exponentY[t];
+				if (a + b > order - n)
+					break;
+				double value;
+				if (a > 0)
+					value = x * recurrence[above + index(a - 1, b)] + (a > 1 ? (a - 1) * recurrence[above + index(a - 2, b)] : 0);
+				else
+					value = y * recurrence[above + index(a, b - 1)] + (b > 1 ? (b - 1) * recurrence[above + index(a, b - 2)] : 0);
+				recurrence[row + t] = value;
+			}
+		}
+		System.arraycopy(recurrence, 0, derivatives, 0, terms);
+	}
+
+	@Override
+	public long getInteractions(BodyStore bodies) {
+		return interactions;
+	}
+
+	public int getOrder() {
+		return order;
+	}
+
+	public int getLeafSize() {
+		return leafSize;
+	}
+
+	public double getTheta() {
+		return theta;
+	}
+
+	public void setTheta(double theta) {
+		if (theta <= 0 || theta >= 1)
+			throw new IllegalArgumentException("Opening angle must be between 0 and 1: " + theta);
+		this.theta = theta;
+	}
+}
@@ -0,0 +1,27 @@
+package simulation;
+
+/**
+ * Calculates the gravitational acceleration of every body in a body store.
+ */
+public interface GravitySolver {
+
+	/**
+	 * Calculate the acceleration of every body from the current positions and masses,
+	 * storing the results in the body store's accelerations.
+	 *
+	 * @param bodies The bodies to calculate accelerations for
+	 */
+	void computeAccelerations(BodyStore bodies);
+
+	/**
+	 * Get the number of interactions calculated by the last call to {@link #computeAccelerations(BodyStore)},
+	 * each the pull of one body or group of bodies on another. Direct summation calculates the pull of every body
+	 * on every other body, solvers that approximate groups of bodies count the interactions they actually calculate.
+	 *
+	 * @param bodies The bodies the accelerations were last calculated for
+	 * @return The number of interactions
+	 */
+	default long getInteractions(BodyStore bodies) {
+		return (long) bodies.size * (bodies.size - 1);
+	}
+}
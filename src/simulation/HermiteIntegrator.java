@@ -0,0 +1,356 @@
+package simulation;
+
+import maths.Physics;
+
+/**
+ * Fourth order Hermite predictor-corrector integrator with hierarchical block timesteps.
+ * Every body has its own step, a power of two seconds long, chosen from its acceleration and its derivatives
+ * using Aarseth's criterion. Only the bodies whose steps are due are corrected, against positions of every other body
+ * predicted from their last corrections, so slow outer bodies are evaluated far less often than fast inner ones.
+ * <p>
+ * Accelerations and their rates of change (jerks) are summed directly here rather than through a gravity solver,
+ * because the solvers do not calculate jerks. The integrator keeps each body's state at its own last correction
+ * and writes positions predicted to the end of each call into the body store. If the store is changed
+ * between calls, for example by editing a body, every body's step is restarted from the store.
+ */
+public class HermiteIntegrator implements Integrator {
+
+	/**
+	 * Accuracy parameter for Aarseth's criterion used when none is given.
+	 * Smaller than the 0.02 usual for star clusters, since planets are followed for hundreds of orbits.
+	 */
+	public static final double DEFAULT_ETA = 0.002;
+	/**
+	 * Accuracy parameter for the first step of each body, which only has its acceleration and jerk to go on
+	 */
+	private static final double STARTING_ETA = 0.01;
+	/**
+	 * Shortest and longest steps allowed, in powers of two seconds.
+	 * 2^-10 s is far shorter than any encounter the simulation can render, 2^30 s is about 34 years.
+	 */
+	private static final int MIN_EXPONENT = -10, MAX_EXPONENT = 30;
+
+	/**
+	 * Accuracy parameter for Aarseth's criterion, smaller is more accurate but slower
+	 */
+	private double eta;
+
+	/**
+	 * Number of bodies the state was built for
+	 */
+	private int size;
+	/**
+	 * Time the integrator has reached in seconds, counted from when the state was built
+	 */
+	private double time;
+	/**
+	 * Time of each body's last correction and the length of its step in seconds
+	 */
+	private double[] bodyTime, bodyDelta;
+	/**
+	 * Position in meters, velocity, acceleration and jerk of each body at its last correction
+	 */
+	private double[] x, y, vx, vy, ax, ay, jx, jy;
+	/**
+	 * Position in meters and velocity of every body predicted to the time of the current block step
+	 */
+	private double[] predictedX, predictedY, predictedVX, predictedVY;
+	/**
+	 * The body store as last written to or read from, to notice outside changes
+	 */
+	private final StoreSnapshot snapshot = new StoreSnapshot();
+	/**
+	 * Indices of the bodies due to be corrected in the current block step
+	 */
+	private int[] active;
+	/**
+	 * Number of times a single body's acceleration has been calculated
+	 */
+	private long evaluations;
+	/**
+	 * Number of block steps taken by the last call to step
+	 */
+	private int stepsTaken;
+	/**
+	 * Acceleration and jerk from the last call to evaluate
+	 */
+	private final double[] force = new double[4];
+
+	/**
+	 * Create a Hermite integrator with the default accuracy parameter
+	 */
+	public HermiteIntegrator() {
+		this(DEFAULT_ETA);
+	}
+
+	/**
+	 * Create a Hermite integrator
+	 *
+	 * @param eta Accuracy parameter for Aarseth's criterion, smaller is more accurate but slower
+	 */
+	public HermiteIntegrator(double eta) {
+		setEta(eta);
+	}
+
+	/**
+	 * Advance every body to the end of the step, correcting each body as often as its own step needs.
+	 * The solver is not used, see the class description.
+	 */
+	@Override
+	public void step(BodyStore bodies, GravitySolver solver, double delta) {
+		step(bodies, solver, delta, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Advance every body towards the end of the step, stopping at the last block step taken if the limit is reached
+	 */
+	@Override
+	public double step(BodyStore bodies, GravitySolver solver, double delta, int stepLimit) {
+		stepsTaken = 0;
+		if (bodies.size == 0 || delta <= 0)
+			return 0;
+		if (!snapshot.matches(bodies))
+			start(bodies);
+
+		double from = time, end = time + delta;
+		while (true) {
+			// The next block step is the earliest time any body is due
+			double next = Double.POSITIVE_INFINITY;
+			for (int i = 0; i < size; i++)
+				next = Math.min(next, bodyTime[i] + bodyDelta[i]);
+			if (next > end)
+				break;
+			if (stepsTaken == stepLimit) {
+				// Stop where every corrected body is, rather than predicting the rest of the way
+				end = time;
+				break;
+			}
+
+			int activeCount = 0;
+			for (int i = 0; i < size; i++)
+				if (bodyTime[i] + bodyDelta[i] == next)
+					active[activeCount++] = i;
+
+			predictAll(next);
+			for (int n = 0; n < activeCount; n++)
+				correct(bodies, active[n], next);
+			// Update the corrected bodies' predictions only once every active body has been corrected
+			for (int n = 0; n < activeCount; n++) {
+				int i = active[n];
+				predictedX[i] = x[i];
+				predictedY[i] = y[i];
+				predictedVX[i] = vx[i];
+				predictedVY[i] = vy[i];
+			}
+			time = next;
+			stepsTaken++;
+		}
+
+		time = end;
+		predictAll(end);
+		store(bodies);
+		return end - from;
+	}
+
+	@Override
+	public int getStepsTaken() {
+		return stepsTaken;
+	}
+
+	@Override
+	public boolean controlsTimestep() {
+		return true;
+	}
+
+	/**
+	 * Build the state from the body store and choose every body's first step
+	 *
+	 * @param bodies The body store
+	 */
+	private void start(BodyStore bodies) {
+		size = bodies.size;
+		time = 0;
+		if (x == null || x.length < size) {
+			bodyTime = new double[size];
+			bodyDelta = new double[size];
+			x = new double[size];
+			y = new double[size];
+			vx = new double[size];
+			vy = new double[size];
+			ax = new double[size];
+			ay = new double[size];
+			jx = new double[size];
+			jy = new double[size];
+			predictedX = new double[size];
+			predictedY = new double[size];
+			predictedVX = new double[size];
+			predictedVY = new double[size];
+			active = new int[size];
+		}
+
+		for (int i = 0; i < size; i++) {
+			x[i] = predictedX[i] = bodies.positionX[i] * Physics.METERS_PER_AU;
+			y[i] = predictedY[i] = bodies.positionY[i] * Physics.METERS_PER_AU;
+			vx[i] = predictedVX[i] = bodies.velocityX[i];
+			vy[i] = predictedVY[i] = bodies.velocityY[i];
+			bodyTime[i] = 0;
+		}
+		for (int i = 0; i < size; i++) {
+			evaluate(bodies, i);
+			ax[i] = force[0];
+			ay[i] = force[1];
+			jx[i] = force[2];
+			jy[i] = force[3];
+			bodies.accelerationX[i] = ax[i];
+			bodies.accelerationY[i] = ay[i];
+
+			double acceleration = Math.hypot(ax[i], ay[i]), jerk = Math.hypot(jx[i], jy[i]);
+			double delta = jerk > 0 ? STARTING_ETA * acceleration / jerk : Double.POSITIVE_INFINITY;
+			// Every body starts at time 0, which any power of two divides
+			bodyDelta[i] = blockStep(delta, Math.scalb(1.0, MAX_EXPONENT), 0);
+		}
+		snapshot.record(bodies);
+	}
+
+	/**
+	 * Predict every body's position and velocity at a time from its last correction using its acceleration and jerk
+	 *
+	 * @param t The time to predict to
+	 */
+	private void predictAll(double t) {
+		for (int i = 0; i < size; i++) {
+			double dt = t - bodyTime[i];
+			if (dt == 0) continue;
+			double dt2 = dt * dt / 2, dt3 = dt2 * dt / 3;
+			predictedX[i] = x[i] + vx[i] * dt + ax[i] * dt2 + jx[i] * dt3;
+			predictedY[i] = y[i] + vy[i] * dt + ay[i] * dt2 + jy[i] * dt3;
+			predictedVX[i] = vx[i] + ax[i] * dt + jx[i] * dt2;
+			predictedVY[i] = vy[i] + ay[i] * dt + jy[i] * dt2;
+		}
+	}
+
+	/**
+	 * Correct one body at the end of its step and choose its next step
+	 *
+	 * @param bodies The body store
+	 * @param i The index of the body
+	 * @param t The time at the end of the body's step
+	 */
+	private void correct(BodyStore bodies, int i, double t) {
+		double dt = t - bodyTime[i];
+		evaluate(bodies, i);
+		double ax1 = force[0], ay1 = force[1], jx1 = force[2], jy1 = force[3];
+
+		// Second and third derivatives of acceleration at the start of the step, from the Hermite interpolant
+		double dt2 = dt * dt, dt3 = dt2 * dt;
+		double snapX = (-6 * (ax[i] - ax1) - dt * (4 * jx[i] + 2 * jx1)) / dt2;
+		double snapY = (-6 * (ay[i] - ay1) - dt * (4 * jy[i] + 2 * jy1)) / dt2;
+		double crackleX = (12 * (ax[i] - ax1) + 6 * dt * (jx[i] + jx1)) / dt3;
+		double crackleY = (12 * (ay[i] - ay1) + 6 * dt * (jy[i] + jy1)) / dt3;
+
+		double dt4 = dt3 * dt, dt5 = dt4 * dt;
+		x[i] = predictedX[i] + snapX * dt4 / 24 + crackleX * dt5 / 120;
+		y[i] = predictedY[i] + snapY * dt4 / 24 + crackleY * dt5 / 120;
+		vx[i] = predictedVX[i] + snapX * dt3 / 6 + crackleX * dt4 / 24;
+		vy[i] = predictedVY[i] + snapY * dt3 / 6 + crackleY * dt4 / 24;
+		ax[i] = ax1;
+		ay[i] = ay1;
+		jx[i] = jx1;
+		jy[i] = jy1;
+		bodyTime[i] = t;
+		bodies.accelerationX[i] = ax1;
+		bodies.accelerationY[i] = ay1;
+
+		// Aarseth's criterion with the derivatives moved to the end of the step
+		snapX += crackleX * dt;
+		snapY += crackleY * dt;
+		double acceleration = Math.hypot(ax1, ay1), jerk = Math.hypot(jx1, jy1);
+		double snap = Math.hypot(snapX, snapY), crackle = Math.hypot(crackleX, crackleY);
+		double denominator = jerk * crackle + snap * snap;
+		double delta = denominator > 0
+				? Math.sqrt(eta * (acceleration * snap + jerk * jerk) / denominator)
+				: Double.POSITIVE_INFINITY;
+		bodyDelta[i] = blockStep(delta, dt * 2, t);
+	}
+
+	/**
+	 * Round a step down to a power of two that keeps the body in step with the block hierarchy
+	 *
+	 * @param delta The step wanted in seconds
+	 * @param limit The longest step allowed in seconds
+	 * @param t The time the step starts at, which must be a whole number of steps
+	 * @return The block step in seconds
+	 */
+	private static double blockStep(double delta, double limit, double t) {
+		double step = Math.min(Math.scalb(1.0, MAX_EXPONENT), limit);
+		if (delta < step)
+			step = Math.scalb(1.0, Math.max(MIN_EXPONENT, Math.getExponent(delta)));
+		while (step > Math.scalb(1.0, MIN_EXPONENT) && t % step != 0)
+			step /= 2;
+		return step;
+	}
+
+	/**
+	 * Sum the acceleration and jerk on one body from every other body's predicted position and velocity.
+	 * The results are left in force as x acceleration, y acceleration, x jerk and y jerk.
+	 *
+	 * @param bodies The body store, for the masses
+	 * @param i The index of the body
+	 */
+	private void evaluate(BodyStore bodies, int i) {
+		double xi = predictedX[i], yi = predictedY[i], vxi = predictedVX[i], vyi = predictedVY[i];
+		double accelerationX = 0, accelerationY = 0, jerkX = 0, jerkY = 0;
+		for (int j = 0; j < size; j++) {
+			if (j == i) continue;
+			double dx = predictedX[j] - xi, dy = predictedY[j] - yi;
+			double dvx = predictedVX[j] - vxi, dvy = predictedVY[j] - vyi;
+			double distanceSquared = dx * dx + dy * dy;
+			if (distanceSquared == 0) continue;
+			double inverseCube = bodies.mass[j] / (distanceSquared * Math.sqrt(distanceSquared));
+			double approach = 3 * (dx * dvx + dy * dvy) / distanceSquared;
+			accelerationX += dx * inverseCube;
+			accelerationY += dy * inverseCube;
+			jerkX += (dvx - approach * dx) * inverseCube;
+			jerkY += (dvy - approach * dy) * inverseCube;
+		}
+		force[0] = accelerationX * Physics.G;
+		force[1] = accelerationY * Physics.G;
+		force[2] = jerkX * Physics.G;
+		force[3] = jerkY * Physics.G;
+		evaluations++;
+	}
+
+	/**
+	 * Write the predicted positions and velocities into the body store and record it
+	 *
+	 * @param bodies The body store
+	 */
+	private void store(BodyStore bodies) {
+		// Going through the setters marks the accelerations as stale for other integrators
+		for (int i = 0; i < size; i++) {
+			bodies.setPosition(i, predictedX[i] / Physics.METERS_PER_AU, predictedY[i] / Physics.METERS_PER_AU);
+			bodies.setVelocity(i, predictedVX[i], predictedVY[i]);
+		}
+		snapshot.record(bodies);
+	}
+
+	/**
+	 * Get the number of times a single body's acceleration has been calculated.
+	 * Direct summation with a global step would need the number of bodies times the number of steps.
+	 *
+	 * @return The number of single body evaluations
+	 */
+	public long getEvaluations() {
+		return evaluations;
+	}
+
+	public double getEta() {
+		return eta;
+	}
+
+	public void setEta(double eta) {
+		if (eta <= 0)
+			throw new IllegalArgumentException("Eta must be positive: " + eta);
+		this.eta = eta;
+	}
+}
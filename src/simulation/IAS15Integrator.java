@@ -0,0 +1,437 @@
+package simulation;
+
+import maths.Physics;
+
+import java.util.Arrays;
+
+/**
+ * Fifteenth order Gauss-Radau integrator with automatic step control, after Rein and Spiegel's IAS15.
+ * Each step fits a seventh degree polynomial in time to the accelerations at seven Gauss-Radau points,
+ * iterating until the fit stops improving, then integrates the polynomial twice to move the bodies.
+ * The next step is a fixed fraction of the shortest timescale over which any body's acceleration changes,
+ * and steps that turn out far too long are rejected and retried, so close encounters are followed to
+ * machine precision without a hand-tuned number of substeps while quiet stretches take long steps.
+ * <p>
+ * The polynomial from each step is used as the starting guess for the next. If the body store is changed
+ * between calls, for example by editing a body, the guess and step length are thrown away.
+ */
+public class IAS15Integrator implements Integrator {
+
+	/**
+	 * Accuracy parameter used when none is given
+	 */
+	public static final double DEFAULT_EPSILON = 1e-9;
+	/**
+	 * Steps are rejected if the next step would be shorter than this fraction of them,
+	 * and can grow by at most its reciprocal
+	 */
+	private static final double SAFETY_FACTOR = 0.25;
+	/**
+	 * Most predictor-corrector iterations per step
+	 */
+	private static final int MAX_ITERATIONS = 12;
+	/**
+	 * Shortest step in seconds, which is accepted whatever its error
+	 */
+	private static final double MIN_STEP = 1e-3;
+	/**
+	 * Fraction of the shortest orbital timescale to try as the first step
+	 */
+	private static final double FIRST_STEP = 0.1;
+	/**
+	 * Spacing of the Gauss-Radau points within a step, the first being the start of the step
+	 */
+	private static final double[] SPACING = {
+			0.0,
+			0.0562625605369221464656521910318,
+			0.180240691736892364987579942780,
+			0.352624717113169637373907769648,
+			0.547153626330555383001448554766,
+			0.734210177215410531523210605558,
+			0.885320946839095768090359771030,
+			0.977520613561287501891174488626
+	};
+	/**
+	 * Number of polynomial terms after the constant one
+	 */
+	private static final int ORDER = 7;
+	/**
+	 * Coefficient of each power of time in each of the Newton basis polynomials t (t - h1) ... (t - h(k-1)).
+	 * Row k - 1 holds the polynomial ending at h(k-1), column n the coefficient of t^(n + 1).
+	 */
+	private static final double[][] NEWTON_TO_POWER = new double[ORDER][ORDER];
+
+	static {
+		// Multiply out one factor of (t - h) at a time
+		double[] polynomial = new double[ORDER + 1];
+		polynomial[1] = 1;
+		for (int k = 0; k < ORDER; k++) {
+			if (k > 0) {
+				for (int n = k + 1; n > 0; n--)
+					polynomial[n] = polynomial[n - 1] - SPACING[k] * polynomial[n];
+				polynomial[0] = 0;
+			}
+			System.arraycopy(polynomial, 1, NEWTON_TO_POWER[k], 0, ORDER);
+		}
+	}
+
+	/**
+	 * Accuracy parameter, roughly the largest allowed error relative to the accelerations over a step
+	 */
+	private double epsilon;
+	/**
+	 * Fraction of the shortest timescale to make each step, set from epsilon
+	 */
+	private double stepScale;
+
+	/**
+	 * Number of values in each state array, two per body
+	 */
+	private int length;
+	/**
+	 * Position in meters, velocity and acceleration at the start of the step, x and y interleaved
+	 */
+	private double[] x0 = new double[0], v0 = new double[0], a0 = new double[0];
+	/**
+	 * Position in meters and acceleration at the current Gauss-Radau point
+	 */
+	private double[] x = new double[0], a = new double[0];
+	/**
+	 * Polynomial coefficients of the accelerations in powers of time and in the Newton basis
+	 */
+	private double[][] b = new double[ORDER][0], g = new double[ORDER][0];
+	/**
+	 * Length of the next step in seconds, 0 if it has not been chosen yet
+	 */
+	private double nextDelta;
+	/**
+	 * The body store as last written to, to notice outside changes
+	 */
+	private final StoreSnapshot snapshot = new StoreSnapshot();
+	/**
+	 * Number of steps taken and rejected
+	 */
+	private long steps, rejections;
+	/**
+	 * Number of steps taken by the last call to step
+	 */
+	private int stepsTaken;
+
+	/**
+	 * Create an IAS15 integrator with the default accuracy
+	 */
+	public IAS15Integrator() {
+		this(DEFAULT_EPSILON);
+	}
+
+	/**
+	 * Create an IAS15 integrator
+	 *
+	 * @param epsilon Accuracy parameter, smaller is more accurate but slower
+	 */
+	public IAS15Integrator(double epsilon) {
+		setEpsilon(epsilon);
+	}
+
+	/**
+	 * Advance every body to the end of the step, taking as many steps of its own choosing as are needed
+	 */
+	@Override
+	public void step(BodyStore bodies, GravitySolver solver, double delta) {
+		step(bodies, solver, delta, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Advance every body towards the end of the step, stopping after the last step allowed
+	 */
+	@Override
+	public double step(BodyStore bodies, GravitySolver solver, double delta, int stepLimit) {
+		stepsTaken = 0;
+		if (bodies.size == 0 || delta <= 0)
+			return 0;
+		if (!snapshot.matches(bodies))
+			start(bodies);
+
+		double remaining = delta;
+		while (remaining > 0 && stepsTaken < stepLimit) {
+			double planned = nextDelta;
+			if (planned >= remaining) {
+				// A step cut short to land on the end should not hold back the steps after it
+				remaining -= attempt(bodies, solver, remaining, Math.max(planned, remaining / SAFETY_FACTOR));
+			} else {
+				remaining -= attempt(bodies, solver, planned, planned / SAFETY_FACTOR);
+			}
+			stepsTaken++;
+		}
+
+		// Going through the setters marks the accelerations as stale for other integrators
+		for (int i = 0; i < bodies.size; i++) {
+			bodies.setPosition(i, x0[2 * i] / Physics.METERS_PER_AU, x0[2 * i + 1] / Physics.METERS_PER_AU);
+			bodies.setVelocity(i, v0[2 * i], v0[2 * i + 1]);
+		}
+		snapshot.record(bodies);
+		return delta - Math.max(remaining, 0);
+	}
+
+	@Override
+	public int getStepsTaken() {
+		return stepsTaken;
+	}
+
+	@Override
+	public boolean controlsTimestep() {
+		return true;
+	}
+
+	/**
+	 * Read the state from the body store and forget the previous polynomial and step length
+	 *
+	 * @param bodies The body store
+	 */
+	private void start(BodyStore bodies) {
+		length = bodies.size * 2;
+		if (x0.length != length) {
+			x0 = new double[length];
+			v0 = new double[length];
+			a0 = new double[length];
+			x = new double[length];
+			a = new double[length];
+			for (int k = 0; k < ORDER; k++) {
+				b[k] = new double[length];
+				g[k] = new double[length];
+			}
+		}
+		for (int i = 0; i < bodies.size; i++) {
+			x0[2 * i] = bodies.positionX[i] * Physics.METERS_PER_AU;
+			x0[2 * i + 1] = bodies.positionY[i] * Physics.METERS_PER_AU;
+			v0[2 * i] = bodies.velocityX[i];
+			v0[2 * i + 1] = bodies.velocityY[i];
+		}
+		for (int k = 0; k < ORDER; k++)
+			Arrays.fill(b[k], 0);
+		nextDelta = FIRST_STEP * TimestepController.orbitalTimescale(bodies);
+		if (!(nextDelta > MIN_STEP) || Double.isInfinite(nextDelta))
+			nextDelta = MIN_STEP;
+	}
+
+	/**
+	 * Take one step, retrying with shorter steps until the error is acceptable
+	 *
+	 * @param bodies The body store, used to calculate accelerations
+	 * @param solver The solver to calculate accelerations with
+	 * @param delta The length of step to try first
+	 * @param longest The longest the next step can be
+	 * @return The length of the step taken
+	 */
+	private double attempt(BodyStore bodies, GravitySolver solver, double delta, double longest) {
+		accelerate(bodies, solver, x0, a0);
+		while (true) {
+			converge(bodies, solver, delta);
+
+			double next = delta * shortestTimescale() * stepScale;
+			if (!(next == next))
+				next = delta * SAFETY_FACTOR;
+
+			if (next < delta * SAFETY_FACTOR && delta > MIN_STEP) {
+				// Far too long, so retry from the same start with the polynomial rescaled to the shorter step
+				next = Math.max(next, MIN_STEP);
+				double ratio = next / delta, power = ratio;
+				for (int n = 0; n < ORDER; n++) {
+					for (int k = 0; k < length; k++)
+						b[n][k] *= power;
+					power *= ratio;
+				}
+				delta = next;
+				longest = next / SAFETY_FACTOR;
+				rejections++;
+				continue;
+			}
+
+			// Integrate the polynomial over the whole step
+			for (int k = 0; k < length; k++) {
+				double position = a0[k] / 2, velocity = a0[k];
+				for (int n = 0; n < ORDER; n++) {
+					position += b[n][k] / ((n + 2) * (n + 3));
+					velocity += b[n][k] / (n + 2);
+				}
+				x0[k] += delta * (v0[k] + delta * position);
+				v0[k] += delta * velocity;
+			}
+			steps++;
+			nextDelta = Math.min(next, longest);
+			predict(nextDelta / delta);
+			return delta;
+		}
+	}
+
+	/**
+	 * Iterate the fit of the polynomial to the accelerations at the Gauss-Radau points until it stops improving
+	 *
+	 * @param bodies The body store, used to calculate accelerations
+	 * @param solver The solver to calculate accelerations with
+	 * @param delta The length of the step
+	 */
+	private void converge(BodyStore bodies, GravitySolver solver, double delta) {
+		powerToNewton();
+		double previousError = Double.POSITIVE_INFINITY;
+		for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+			double largestChange = 0, largestAcceleration = 0;
+			for (int point = 1; point <= ORDER; point++) {
+				double h = SPACING[point];
+				// Position at this point from the current polynomial
+				for (int k = 0; k < length; k++) {
+					double sum = a0[k] / 2, power = h;
+					for (int n = 0; n < ORDER; n++) {
+						sum += b[n][k] * power / ((n + 2) * (n + 3));
+						power *= h;
+					}
+					x[k] = x0[k] + h * delta * (v0[k] + h * delta * sum);
+				}
+				accelerate(bodies, solver, x, a);
+
+				// Update the divided difference for this point and carry the change into the power coefficients
+				int row = point - 1;
+				for (int k = 0; k < length; k++) {
+					double difference = (a[k] - a0[k]) / SPACING[point];
+					for (int m = 1; m < point; m++)
+						difference = (difference - g[m - 1][k]) / (SPACING[point] - SPACING[m]);
+					double change = difference - g[row][k];
+					g[row][k] = difference;
+					for (int n = 0; n <= row; n++)
+						b[n][k] += change * NEWTON_TO_POWER[row][n];
+					if (point == ORDER) {
+						largestChange = Math.max(largestChange, Math.abs(change));
+						largestAcceleration = Math.max(largestAcceleration, Math.abs(a[k]));
+					}
+				}
+			}
+			double error = largestAcceleration > 0 ? largestChange / largestAcceleration : 0;
+			// Stop once converged to rounding error, or once rounding makes the error bounce around
+			if (error < 1e-16 || (iteration > 1 && error >= previousError))
+				break;
+			previousError = error;
+		}
+	}
+
+	/**
+	 * Find the shortest timescale over which any body's acceleration changes at the end of the step,
+	 * sqrt(2 |a|^2 / (|da/dt|^2 + |d2a/dt2| |a|)) as proposed by Pham, Rein and Spiegel.
+	 * Unlike the size of the last polynomial term this uses only the low derivatives,
+	 * which are not swamped by rounding error when steps get short.
+	 *
+	 * @return The shortest timescale as a fraction of the step, infinite if no acceleration changes
+	 */
+	private double shortestTimescale() {
+		double shortestSquared = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < length; i += 2) {
+			double accelerationSquared = 0, rateSquared = 0, curvatureSquared = 0;
+			for (int k = i; k < i + 2; k++) {
+				double acceleration = a0[k], rate = 0, curvature = 0;
+				for (int n = 0; n < ORDER; n++) {
+					acceleration += b[n][k];
+					rate += (n + 1) * b[n][k];
+					curvature += (n + 1) * n * b[n][k];
+				}
+				accelerationSquared += acceleration * acceleration;
+				rateSquared += rate * rate;
+				curvatureSquared += curvature * curvature;
+			}
+			double denominator = rateSquared + Math.sqrt(curvatureSquared * accelerationSquared);
+			if (denominator > 0)
+				shortestSquared = Math.min(shortestSquared, 2 * accelerationSquared / denominator);
+		}
+		return Math.sqrt(shortestSquared);
+	}
+
+	/**
+	 * Find the Newton basis coefficients from the power coefficients
+	 */
+	private void powerToNewton() {
+		// The conversion is triangular with ones on the diagonal, so solve from the highest term down
+		for (int k = 0; k < length; k++) {
+			for (int row = ORDER - 1; row >= 0; row--) {
+				double value = b[row][k];
+				for (int higher = row + 1; higher < ORDER; higher++)
+					value -= g[higher][k] * NEWTON_TO_POWER[higher][row];
+				g[row][k] = value;
+			}
+		}
+	}
+
+	/**
+	 * Shift the polynomial to start at the end of the step just taken and rescale it to the next step,
+	 * as the first guess for the next step
+	 *
+	 * @param ratio Length of the next step over the length of the step just taken
+	 */
+	private void predict(double ratio) {
+		// Stretched much further the polynomial is a worse guess than nothing
+		if (ratio > 1 / SAFETY_FACTOR) {
+			for (int n = 0; n < ORDER; n++)
+				Arrays.fill(b[n], 0);
+			return;
+		}
+		for (int k = 0; k < length; k++) {
+			double power = ratio;
+			for (int m = 0; m < ORDER; m++) {
+				double sum = 0, binomial = 1;
+				// binomial runs through (n + 1) choose (m + 1)
+				for (int n = m; n < ORDER; n++) {
+					sum += b[n][k] * binomial;
+					binomial = binomial * (n + 2) / (n + 1 - m);
+				}
+				b[m][k] = sum * power;
+				power *= ratio;
+			}
+		}
+	}
+
+	/**
+	 * Calculate the accelerations with the bodies at a set of positions
+	 *
+	 * @param bodies The body store, whose positions are overwritten
+	 * @param solver The solver to calculate accelerations with
+	 * @param positions Positions in meters, x and y interleaved
+	 * @param result Accelerations, x and y interleaved
+	 */
+	private void accelerate(BodyStore bodies, GravitySolver solver, double[] positions, double[] result) {
+		for (int i = 0; i < bodies.size; i++) {
+			bodies.positionX[i] = positions[2 * i] / Physics.METERS_PER_AU;
+			bodies.positionY[i] = positions[2 * i + 1] / Physics.METERS_PER_AU;
+		}
+		bodies.computeAccelerations(solver);
+		for (int i = 0; i < bodies.size; i++) {
+			result[2 * i] = bodies.accelerationX[i];
+			result[2 * i + 1] = bodies.accelerationY[i];
+		}
+	}
+
+	/**
+	 * Get the number of steps taken
+	 *
+	 * @return The number of accepted steps
+	 */
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Get the number of steps rejected for being too long
+	 *
+	 * @return The number of rejected steps
+	 */
+	public long getRejections() {
+		return rejections;
+	}
+
+	public double getEpsilon() {
+		return epsilon;
+	}
+
+	public void setEpsilon(double epsilon) {
+		if (epsilon <= 0)
+			throw new IllegalArgumentException("Epsilon must be positive: " + epsilon);
+		this.epsilon = epsilon;
+		stepScale = Math.pow(epsilon * 5040, 1.0 / ORDER);
+	}
+}
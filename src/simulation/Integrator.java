@@ -0,0 +1,60 @@
+package simulation;
+
+/**
+ * Rule for advancing a body store through time using accelerations from a gravity solver.
+ */
+public interface Integrator {
+
+	/**
+	 * Advance every body by one step
+	 *
+	 * @param bodies The bodies to advance
+	 * @param solver The solver to calculate accelerations with
+	 * @param delta Time to advance by in seconds
+	 */
+	void step(BodyStore bodies, GravitySolver solver, double delta);
+
+	/**
+	 * Advance every body by up to an amount of time, stopping early once a number of the integrator's own steps
+	 * have been taken. Integrators that choose their own steps override this so a limit on steps holds for them too.
+	 *
+	 * @param bodies The bodies to advance
+	 * @param solver The solver to calculate accelerations with
+	 * @param delta Most time to advance by in seconds
+	 * @param stepLimit Most steps to take
+	 * @return The time advanced in seconds
+	 */
+	default double step(BodyStore bodies, GravitySolver solver, double delta, int stepLimit) {
+		step(bodies, solver, delta);
+		return delta;
+	}
+
+	/**
+	 * Get the number of the integrator's own steps taken by the last call to step
+	 *
+	 * @return The number of steps
+	 */
+	default int getStepsTaken() {
+		return 1;
+	}
+
+	/**
+	 * Check if the integrator chooses its own steps inside each call to step.
+	 * Such integrators should be given the whole time to advance by at once rather than split into steps.
+	 *
+	 * @return True if the integrator chooses its own steps, otherwise false
+	 */
+	default boolean controlsTimestep() {
+		return false;
+	}
+
+	/**
+	 * Get how many times longer this integrator's steps can be than a general integrator's for the same accuracy.
+	 * Integrators that follow the dominant motion exactly can take much longer steps.
+	 *
+	 * @return The factor to lengthen steps chosen by a timestep controller by
+	 */
+	default double timestepScale() {
+		return 1;
+	}
+}
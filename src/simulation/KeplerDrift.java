@@ -0,0 +1,122 @@
+package simulation;
+
+/**
+ * Moves a body along its two body orbit around a fixed centre of attraction for a length of time.
+ * Uses the universal variable formulation with Stumpff functions, so circular, elliptical, parabolic
+ * and hyperbolic orbits are handled by the same code, and Laguerre-Conway iteration to solve Kepler's equation,
+ * which converges from a rough first guess even for very eccentric orbits.
+ */
+class KeplerDrift {
+
+	/**
+	 * Most iterations to spend solving Kepler's equation
+	 */
+	private static final int MAX_ITERATIONS = 50;
+	/**
+	 * Order of the Laguerre-Conway iteration, 5 is the usual choice
+	 */
+	private static final int LAGUERRE_ORDER = 5;
+	/**
+	 * Below this magnitude the Stumpff functions are calculated from their series to avoid cancellation
+	 */
+	private static final double SERIES_LIMIT = 1e-2;
+
+	private KeplerDrift() {
+	}
+
+	/**
+	 * Advance one body along its orbit, replacing its position and velocity
+	 *
+	 * @param gm Gravitational parameter of the centre of attraction in m^3/s^2
+	 * @param x x positions relative to the centre in meters
+	 * @param y y positions relative to the centre in meters
+	 * @param vx x velocities relative to the centre in m/s
+	 * @param vy y velocities relative to the centre in m/s
+	 * @param i The index of the body in the arrays
+	 * @param delta Time to advance by in seconds
+	 */
+	static void drift(double gm, double[] x, double[] y, double[] vx, double[] vy, int i, double delta) {
+		double x0 = x[i], y0 = y[i], vx0 = vx[i], vy0 = vy[i];
+		double r0 = Math.sqrt(x0 * x0 + y0 * y0);
+		if (gm <= 0 || r0 == 0) {
+			// Nothing to orbit, so move in a straight line
+			x[i] += vx0 * delta;
+			y[i] += vy0 * delta;
+			return;
+		}
+
+		double sqrtGm = Math.sqrt(gm);
+		double radialVelocity = (x0 * vx0 + y0 * vy0) / r0;
+		double speedSquared = vx0 * vx0 + vy0 * vy0;
+		// Reciprocal of the semi-major axis, negative for hyperbolic orbits
+		double alpha = 2 / r0 - speedSquared / gm;
+		double sigma = r0 * radialVelocity / sqrtGm;
+		double beta = 1 - alpha * r0;
+
+		// Start from the mean motion for bound orbits and the time over distance otherwise
+		double chi = alpha > 0 ? sqrtGm * alpha * delta : sqrtGm * delta / r0;
+		double c = 0.5, s = 1.0 / 6, r = r0;
+		for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+			double chiSquared = chi * chi;
+			double z = alpha * chiSquared;
+			c = stumpffC(z);
+			s = stumpffS(z);
+			double f = sigma * chiSquared * c + beta * chiSquared * chi * s + r0 * chi - sqrtGm * delta;
+			// The derivative of Kepler's equation is the distance from the centre at chi
+			r = sigma * chi * (1 - z * s) + beta * chiSquared * c + r0;
+			double secondDerivative = sigma * (1 - z * c) + beta * chi * (1 - z * s);
+			double root = Math.sqrt(Math.abs((LAGUERRE_ORDER - 1) * (LAGUERRE_ORDER - 1) * r * r
+					- LAGUERRE_ORDER * (LAGUERRE_ORDER - 1) * f * secondDerivative));
+			double change = LAGUERRE_ORDER * f / (r + Math.copySign(root, r));
+			chi -= change;
+			if (Math.abs(change) <= 1e-15 * Math.abs(chi) || change == 0)
+				break;
+		}
+		double chiSquared = chi * chi;
+		double z = alpha * chiSquared;
+		c = stumpffC(z);
+		s = stumpffS(z);
+		r = sigma * chi * (1 - z * s) + beta * chiSquared * c + r0;
+
+		// Lagrange's f and g coefficients take the starting position and velocity to the new ones
+		double f = 1 - chiSquared / r0 * c;
+		double g = delta - chiSquared * chi / sqrtGm * s;
+		double fDot = sqrtGm / (r * r0) * chi * (z * s - 1);
+		double gDot = 1 - chiSquared / r * c;
+		x[i] = f * x0 + g * vx0;
+		y[i] = f * y0 + g * vy0;
+		vx[i] = fDot * x0 + gDot * vx0;
+		vy[i] = fDot * y0 + gDot * vy0;
+	}
+
+	/**
+	 * The Stumpff function c2(z) = (1 - cos(sqrt(z))) / z
+	 *
+	 * @param z The argument
+	 * @return c2(z)
+	 */
+	private static double stumpffC(double z) {
+		if (Math.abs(z) < SERIES_LIMIT)
+			return 1.0 / 2 - z * (1.0 / 24 - z * (1.0 / 720 - z / 40320));
+		if (z > 0)
+			return (1 - Math.cos(Math.sqrt(z))) / z;
+		return (Math.cosh(Math.sqrt(-z)) - 1) / -z;
+	}
+
+	/**
+	 * The Stumpff function c3(z) = (sqrt(z) - sin(sqrt(z))) / sqrt(z)^3
+	 *
+	 * @param z The argument
+	 * @return c3(z)
+	 */
+	private static double stumpffS(double z) {
+		if (Math.abs(z) < SERIES_LIMIT)
+			return 1.0 / 6 - z * (1.0 / 120 - z * (1.0 / 5040 - z / 362880));
+		if (z > 0) {
+			double root = Math.sqrt(z);
+			return (root - Math.sin(root)) / (root * z);
+		}
+		double root = Math.sqrt(-z);
+		return (Math.sinh(root) - root) / (root * -z);
+	}
+}
@@ -0,0 +1,94 @@
+package simulation;
+
+/**
+ * Direct summation gravity solver laid out so the JIT compiler can use SIMD instructions.
+ * For each body the other bodies are handled in tiles. A first loop over the tile writes each separation
+ * and pull strength into scratch arrays, with no branches and no running totals, which is the shape of loop
+ * HotSpot turns into vector square roots and divisions. A second loop sums the tile in four independent lanes,
+ * so the additions do not wait on each other. Tiles are small enough for the scratch arrays to stay in cache.
+ * <p>
+ * Results match {@link DirectSolver} to within rounding error, which remains the scalar reference.
+ * <p>
+ * This is the fallback for <code>VectorDirectSolver</code>, which does the same sums with the Java Vector API.
+ * That class lives in the separate <code>src-vector</code> source root, as it only compiles on JDK 16 and later.
+ * Create either through {@link #create()}.
+ */
+public class LaneDirectSolver implements GravitySolver {
+
+	/**
+	 * Number of bodies in each tile, 512 bodies of scratch space fits in a 32 KB L1 cache
+	 */
+	private static final int TILE_SIZE = 512;
+
+	/**
+	 * Separation from the current body to each body in the tile in AU, and the body's mass over the distance cubed
+	 */
+	private double[] separationX = new double[0], separationY = new double[0], strength = new double[0];
+
+	/**
+	 * Create the fastest SIMD direct summation solver this JVM can run: a <code>VectorDirectSolver</code> if it was
+	 * compiled from <code>src-vector</code> and the Vector API module was added when the JVM started,
+	 * otherwise a solver using these scalar lanes
+	 *
+	 * @return The solver
+	 */
+	public static LaneDirectSolver create() {
+		try {
+			// Looked up by name so this class still loads on JVMs without the module
+			Class.forName("jdk.incubator.vector.DoubleVector");
+			return (LaneDirectSolver) Class.forName("simulation.VectorDirectSolver").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return new LaneDirectSolver();
+		}
+	}
+
+	@Override
+	public void computeAccelerations(BodyStore bodies) {
+		int size = bodies.size;
+		// Scratch arrays share indices with the store, so both loops read everything at the same offsets
+		if (strength.length < size) {
+			separationX = new double[size];
+			separationY = new double[size];
+			strength = new double[size];
+		}
+		double[] positionX = bodies.positionX, positionY = bodies.positionY, mass = bodies.mass;
+		double[] separationX = this.separationX, separationY = this.separationY, strength = this.strength;
+
+		for (int i = 0; i < size; i++) {
+			double xi = positionX[i], yi = positionY[i];
+			double x0 = 0, x1 = 0, x2 = 0, x3 = 0;
+			double y0 = 0, y1 = 0, y2 = 0, y3 = 0;
+			for (int start = 0; start < size; start += TILE_SIZE) {
+				int end = Math.min(size, start + TILE_SIZE);
+				for (int j = start; j < end; j++) {
+					double dx = positionX[j] - xi, dy = positionY[j] - yi;
+					double distanceSquared = dx * dx + dy * dy;
+					separationX[j] = dx;
+					separationY[j] = dy;
+					strength[j] = mass[j] / (distanceSquared * Math.sqrt(distanceSquared));
+				}
+				// The body's pull on itself came out as 0 / 0
+				if (i >= start && i < end)
+					strength[i] = 0;
+
+				int j = start;
+				for (; j + 4 <= end; j += 4) {
+					x0 += separationX[j] * strength[j];
+					x1 += separationX[j + 1] * strength[j + 1];
+					x2 += separationX[j + 2] * strength[j + 2];
+					x3 += separationX[j + 3] * strength[j + 3];
+					y0 += separationY[j] * strength[j];
+					y1 += separationY[j + 1] * strength[j + 1];
+					y2 += separationY[j + 2] * strength[j + 2];
+					y3 += separationY[j + 3] * strength[j + 3];
+				}
+				for (; j < end; j++) {
+					x0 += separationX[j] * strength[j];
+					y0 += separationY[j] * strength[j];
+				}
+			}
+			bodies.accelerationX[i] = ((x0 + x1) + (x2 + x3)) * DirectSolver.G_PER_AU_SQUARED;
+			bodies.accelerationY[i] = ((y0 + y1) + (y2 + y3)) * DirectSolver.G_PER_AU_SQUARED;
+		}
+	}
+}
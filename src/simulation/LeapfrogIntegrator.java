@@ -0,0 +1,20 @@
+package simulation;
+
+/**
+ * Kick-drift-kick leapfrog integrator, also known as velocity Verlet.
+ * Second order and symplectic, so energy errors stay bounded rather than growing over time.
+ * The accelerations at the end of a step are kept for the first kick of the next,
+ * so each step needs only one acceleration calculation.
+ */
+public class LeapfrogIntegrator implements Integrator {
+
+	@Override
+	public void step(BodyStore bodies, GravitySolver solver, double delta) {
+		if (!bodies.hasCurrentAccelerations())
+			bodies.computeAccelerations(solver);
+		bodies.kick(delta / 2);
+		bodies.drift(delta);
+		bodies.computeAccelerations(solver);
+		bodies.kick(delta / 2);
+	}
+}
@@ -0,0 +1,376 @@
+package simulation;
+
+import entities.Entity;
+import util.XMLReader;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Finds the range of masses for the first body, the sun, that keep a system stable.
+ * Each mass is an independent trial on its own copy of the system, so trials run at the same time on a thread pool.
+ * A trial is stable if for 50 years no other body ends up less than half or more than one and a half times
+ * its starting distance from the origin, ignoring bodies within 0.1 AU of it.
+ * Trials that are certain to become unstable are stopped early, see {@link StabilityClassifier}.
+ * Trials can also be cut short and classified by their MEGNO, see {@link #setMegnoFraction(double)}.
+ * <p>
+ * Masses can either all be tested, each 5% more than the last, or the edges of the stable range can be searched for.
+ * The search assumes the stable masses form a single range, and needs around 50 trials rather than 950.
+ * <p>
+ * Usage: <code>MassSweep system.xml [threads] [tolerance] [MEGNO fraction]</code>, searching to the tolerance
+ * if one above 0 is given, and classifying trials by their MEGNO after the fraction of each if one is given
+ */
+public class MassSweep {
+
+	/**
+	 * Length of each trial in seconds, 50 years
+	 */
+	public static final double TRIAL_LENGTH = 1576800000d;
+	/**
+	 * Smallest mass tested in kg
+	 */
+	public static final double MIN_MASS = 1e20;
+	/**
+	 * Largest mass tested in kg
+	 */
+	public static final double MAX_MASS = 1e40;
+	/**
+	 * Factor between one tested mass and the next
+	 */
+	public static final float MASS_FACTOR = 1.05f;
+	/**
+	 * Relative accuracy to find the edges of the stable range to when none is given
+	 */
+	public static final double DEFAULT_TOLERANCE = 0.001;
+	/**
+	 * Number of masses to try when bracketing the stable range, spread evenly in log space
+	 */
+	private static final int PROBES = 30;
+	/**
+	 * Number of times to check the distances during a trial
+	 */
+	private static final int CHECKS = 1000;
+	/**
+	 * Most steps between checks. Trials with very heavy suns lengthen their steps rather than run for hours.
+	 */
+	private static final int MAX_STEPS_PER_CHECK = 1000;
+	/**
+	 * Largest mean MEGNO for a trial cut short to count as regular rather than chaotic
+	 */
+	public static final double MEGNO_LIMIT = 4;
+
+	/**
+	 * The system as it was before any trial, which is never changed
+	 */
+	private final SystemState initial;
+	/**
+	 * Creates a stepper for each trial, as solvers and integrators keep state between steps
+	 */
+	private final Supplier<Stepper> steppers;
+	/**
+	 * Number of trials to run at once
+	 */
+	private final int threads;
+	/**
+	 * Number of trials in the current sweep, and number finished
+	 */
+	private volatile int trialCount;
+	private final AtomicInteger trialsDone = new AtomicInteger();
+	/**
+	 * True if trials that are certain to become unstable should stop early, otherwise false
+	 */
+	private boolean earlyAbort = true;
+	/**
+	 * Fraction of each trial to run before classifying it by its MEGNO, or 0 to run every trial in full
+	 */
+	private double megnoFraction;
+
+	/**
+	 * Create a sweep using one thread per processor
+	 *
+	 * @param initial The system to test
+	 * @param steppers Creates a stepper for each trial
+	 */
+	public MassSweep(SystemState initial, Supplier<Stepper> steppers) {
+		this(initial, steppers, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create a sweep
+	 *
+	 * @param initial The system to test
+	 * @param steppers Creates a stepper for each trial
+	 * @param threads Number of trials to run at once
+	 */
+	public MassSweep(SystemState initial, Supplier<Stepper> steppers, int threads) {
+		this.initial = initial;
+		this.steppers = steppers;
+		this.threads = threads;
+	}
+
+	/**
+	 * Test every mass from {@link #MIN_MASS} to {@link #MAX_MASS}, each {@link #MASS_FACTOR} times the last
+	 *
+	 * @return The stable masses in increasing order
+	 */
+	public List<Double> run() {
+		List<Double> masses = new ArrayList<>();
+		for (double mass = MIN_MASS; mass <= MAX_MASS; mass *= MASS_FACTOR)
+			masses.add(mass);
+		return run(masses);
+	}
+
+	/**
+	 * Test a list of masses
+	 *
+	 * @param masses The masses to test in kg
+	 * @return The stable masses, in the same order as given
+	 */
+	public List<Double> run(List<Double> masses) {
+		trialCount = masses.size();
+		trialsDone.set(0);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Boolean>> results = new ArrayList<>();
+			for (double mass : masses)
+				results.add(pool.submit(() -> {
+					boolean stable = isStable(mass);
+					trialsDone.incrementAndGet();
+					return stable;
+				}));
+
+			List<Double> stable = new ArrayList<>();
+			for (int i = 0; i < masses.size(); i++)
+				if (results.get(i).get())
+					stable.add(masses.get(i));
+			return stable;
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IllegalStateException("Mass trial failed", e);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Find the smallest and largest stable masses.
+	 * Masses spread evenly in log space, along with the system's own mass, are tried first to bracket the stable range.
+	 * Each edge is then found by bisection in log space until the stable and unstable masses either side of it
+	 * are within the tolerance of each other, with both edges searched at the same time.
+	 *
+	 * @param tolerance Largest relative difference between the masses either side of an edge
+	 * @return The smallest and largest stable masses found, or null if none of the first masses tried were stable
+	 */
+	public double[] search(double tolerance) {
+		if (tolerance <= 0)
+			throw new IllegalArgumentException("Tolerance must be positive: " + tolerance);
+		List<Double> probes = new ArrayList<>();
+		for (int i = 0; i < PROBES; i++)
+			probes.add(MIN_MASS * Math.pow(MAX_MASS / MIN_MASS, (double) i / (PROBES - 1)));
+		// The system's own mass is the most likely to be stable, and the stable range may be narrower than the probes
+		double ownMass = initial.mass[0];
+		if (ownMass > MIN_MASS && ownMass < MAX_MASS) {
+			int i = 0;
+			while (probes.get(i) < ownMass)
+				i++;
+			probes.add(i, ownMass);
+		}
+		// Estimate the bisection trials too, so the progress shown is out of roughly the right total
+		int bisections = (int) Math.ceil(Math.log(Math.log(MAX_MASS / MIN_MASS) / (PROBES - 1) / Math.log1p(tolerance)) / Math.log(2));
+		List<Double> stable = run(probes);
+		if (stable.isEmpty())
+			return null;
+		trialCount = probes.size() + 2 * Math.max(bisections, 0);
+
+		double lowest = stable.get(0), highest = stable.get(stable.size() - 1);
+		int lowestIndex = probes.indexOf(lowest), highestIndex = probes.indexOf(highest);
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, 2));
+		try {
+			Future<Double> lower = pool.submit(() -> lowestIndex == 0 ? lowest
+					: bisect(probes.get(lowestIndex - 1), lowest, tolerance));
+			Future<Double> upper = pool.submit(() -> highestIndex == probes.size() - 1 ? highest
+					: bisect(probes.get(highestIndex + 1), highest, tolerance));
+			return new double[]{lower.get(), upper.get()};
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IllegalStateException("Mass trial failed", e);
+		} finally {
+			pool.shutdownNow();
+			trialCount = trialsDone.get();
+		}
+	}
+
+	/**
+	 * Narrow down the edge of the stable range between an unstable mass and a stable mass
+	 *
+	 * @param unstable A mass known to be unstable in kg
+	 * @param stable A mass known to be stable in kg
+	 * @param tolerance Largest relative difference between the masses either side of the edge
+	 * @return The stable mass closest to the edge in kg
+	 */
+	private double bisect(double unstable, double stable, double tolerance) {
+		while (Math.max(unstable / stable, stable / unstable) > 1 + tolerance) {
+			double middle = Math.sqrt(unstable * stable);
+			if (isStable(middle))
+				stable = middle;
+			else
+				unstable = middle;
+			trialsDone.incrementAndGet();
+		}
+		return stable;
+	}
+
+	/**
+	 * Run one trial on a copy of the system
+	 *
+	 * @param mass The mass of the sun in kg
+	 * @return True if the system stays stable for the whole trial, otherwise false
+	 */
+	boolean isStable(double mass) {
+		BodyStore bodies = initial.toBodyStore();
+		StabilityClassifier classifier = new StabilityClassifier(bodies);
+		bodies.setMass(0, mass);
+		Stepper stepper = steppers.get();
+		TimestepController timestepController = new TimestepController(TimestepController.DEFAULT_ETA, MAX_STEPS_PER_CHECK);
+		classifier.start(bodies);
+		MegnoIntegrator megno = null;
+		int checks = CHECKS;
+		if (megnoFraction > 0) {
+			megno = new MegnoIntegrator(stepper.getIntegrator());
+			stepper.setIntegrator(megno);
+			checks = (int) Math.ceil(CHECKS * megnoFraction);
+		}
+
+		for (int check = 0; check < checks; check++) {
+			if (earlyAbort && classifier.isDivergent(bodies, TRIAL_LENGTH * (CHECKS - check) / CHECKS))
+				return false;
+			timestepController.advance(stepper, bodies, TRIAL_LENGTH / CHECKS);
+			if (classifier.hasLeftBand(bodies))
+				return false;
+		}
+		// A trial cut short is counted as stable if its motion is still regular
+		return megno == null || megno.getMegno() < MEGNO_LIMIT;
+	}
+
+	public boolean isEarlyAbort() {
+		return earlyAbort;
+	}
+
+	public void setEarlyAbort(boolean earlyAbort) {
+		this.earlyAbort = earlyAbort;
+	}
+
+	public double getMegnoFraction() {
+		return megnoFraction;
+	}
+
+	/**
+	 * Set how much of each trial to run before classifying it by its MEGNO.
+	 * Chaotic motion usually shows in the MEGNO long before bodies leave their bands, so trials can be much shorter.
+	 * Trials that stay in their bands for that long and whose motion is still regular are counted as stable,
+	 * which can miss systems that drift out of their bands regularly later on.
+	 *
+	 * @param megnoFraction Fraction of each trial to run, or 0 to run every trial in full
+	 */
+	public void setMegnoFraction(double megnoFraction) {
+		if (megnoFraction < 0 || megnoFraction > 1)
+			throw new IllegalArgumentException("MEGNO fraction must be between 0 and 1: " + megnoFraction);
+		this.megnoFraction = megnoFraction;
+	}
+
+	public int getTrialCount() {
+		return trialCount;
+	}
+
+	public int getTrialsDone() {
+		return trialsDone.get();
+	}
+
+	/**
+	 * Print the range of stable masses found by a sweep
+	 *
+	 * @param stable The stable masses in increasing order
+	 */
+	public static void printResults(List<Double> stable) {
+		if (stable.isEmpty()) {
+			System.out.println("Finished!");
+			System.out.println("No stable masses found");
+			return;
+		}
+
+		// Calculate mean result
+		double mean = 0;
+		for (Double mass : stable)
+			mean += mass;
+		mean /= stable.size();
+
+		printResults(stable.get(0), stable.get(stable.size() - 1), mean);
+	}
+
+	/**
+	 * Print the range of stable masses found by a search.
+	 * The mean is the one a full sweep would give, the mean of the masses 5% apart from the minimum up to the maximum.
+	 *
+	 * @param range The smallest and largest stable masses, or null if none were found
+	 */
+	public static void printResults(double[] range) {
+		if (range == null) {
+			printResults(new ArrayList<>());
+			return;
+		}
+		double minimum = range[0], maximum = range[1];
+		// Sum of a geometric series over the number of terms
+		double factor = MASS_FACTOR;
+		int count = (int) Math.floor(Math.log(maximum / minimum) / Math.log(factor)) + 1;
+		double mean = minimum * (Math.pow(factor, count) - 1) / ((factor - 1) * count);
+		printResults(minimum, maximum, mean);
+	}
+
+	/**
+	 * Print the range of stable masses
+	 *
+	 * @param minimum The smallest stable mass in kg
+	 * @param maximum The largest stable mass in kg
+	 * @param mean The mean stable mass in kg
+	 */
+	private static void printResults(double minimum, double maximum, double mean) {
+		System.out.println("Finished!");
+		System.out.println("Minimum: " + minimum);
+		System.out.println("Maximum: " + maximum);
+		System.out.println("Range: " + (maximum - minimum));
+		System.out.println("Max / Min: " + (maximum / minimum));
+		System.out.println("Mean: " + mean);
+	}
+
+	/**
+	 * Run a sweep without a display
+	 *
+	 * @param args The system file, and optionally the number of threads and the tolerance to search to
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("Usage: MassSweep system.xml [threads] [tolerance] [MEGNO fraction]");
+			System.exit(1);
+		}
+		List<Entity> entities = XMLReader.loadSystem(new File(args[0]));
+		SystemState state = new SystemState(entities.get(0).getBodies());
+		MassSweep sweep = args.length > 1
+				? new MassSweep(state, Stepper::new, Integer.parseInt(args[1]))
+				: new MassSweep(state, Stepper::new);
+		if (args.length > 3)
+			sweep.setMegnoFraction(Double.parseDouble(args[3]));
+		long start = System.nanoTime();
+		// A tolerance of 0 runs the full sweep, so a MEGNO fraction can be given without searching
+		if (args.length > 2 && Double.parseDouble(args[2]) > 0)
+			printResults(sweep.search(Double.parseDouble(args[2])));
+		else
+			printResults(sweep.run());
+		System.out.println(sweep.getTrialCount() + " trials on " + sweep.threads + " threads in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+	}
+}
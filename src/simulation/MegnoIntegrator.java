@@ -0,0 +1,222 @@
+package simulation;
+
+import maths.Physics;
+
+import java.util.Random;
+
+/**
+ * Wraps another integrator, following a tangent vector alongside the system to measure how chaotic its motion is.
+ * The tangent vector is a small change to every position and velocity, advanced with the variational equations,
+ * the bodies' equations of motion linearised around their current positions.
+ * It grows roughly linearly for regular motion and exponentially for chaotic motion.
+ * <p>
+ * The Mean Exponential Growth factor of Nearby Orbits (MEGNO) is a time weighted average of the tangent vector's
+ * growth rate. It settles at 2 for quasi-periodic motion and grows with time for chaotic motion,
+ * at a rate of half the largest Lyapunov exponent, which usually shows within a few dozen orbits.
+ * <p>
+ * The tangent vector is advanced by kick-drift-kick leapfrog using the positions at either end of each step,
+ * so the wrapped integrator always takes the steps it is given. It cannot choose its own,
+ * and steps are not lengthened for integrators that could take longer ones.
+ * The linearised pulls are summed directly over every pair, so this is only suited to small systems.
+ */
+public class MegnoIntegrator implements Integrator {
+
+	/**
+	 * Seed for the random starting tangent vector, so runs are repeatable
+	 */
+	private static final long SEED = 42;
+
+	/**
+	 * The integrator advancing the bodies
+	 */
+	private final Integrator integrator;
+
+	/**
+	 * The body store the tangent vector belongs to
+	 */
+	private BodyStore bodies;
+	/**
+	 * Tangent vector: the change in each body's position in meters and velocity in m/s,
+	 * and the resulting change in acceleration in m/s^2
+	 */
+	private double[] tangentX = new double[0], tangentY = new double[0],
+			tangentVelocityX = new double[0], tangentVelocityY = new double[0],
+			tangentAccelerationX = new double[0], tangentAccelerationY = new double[0];
+	/**
+	 * True if the tangent accelerations match the current positions, otherwise false
+	 */
+	private boolean tangentAccelerationsCurrent;
+
+	/**
+	 * Simulated time since the tangent vector was started in seconds
+	 */
+	private double time;
+	/**
+	 * Integral of twice the time weighted growth rate of the tangent vector, the MEGNO times the time
+	 */
+	private double weightedGrowth;
+	/**
+	 * Integral of the MEGNO over time, the mean MEGNO times the time
+	 */
+	private double megnoIntegral;
+	/**
+	 * Natural log of how many times the tangent vector has grown, as it is scaled back to length 1 after each step
+	 */
+	private double logGrowth;
+
+	/**
+	 * Create a MEGNO integrator
+	 *
+	 * @param integrator The integrator to advance the bodies with
+	 */
+	public MegnoIntegrator(Integrator integrator) {
+		this.integrator = integrator;
+	}
+
+	@Override
+	public void step(BodyStore bodies, GravitySolver solver, double delta) {
+		if (bodies != this.bodies || bodies.size != tangentX.length)
+			reset(bodies);
+		if (!tangentAccelerationsCurrent)
+			computeTangentAccelerations(bodies);
+
+		kickTangent(delta / 2);
+		for (int i = 0; i < bodies.size; i++) {
+			tangentX[i] += tangentVelocityX[i] * delta;
+			tangentY[i] += tangentVelocityY[i] * delta;
+		}
+		integrator.step(bodies, solver, delta);
+		computeTangentAccelerations(bodies);
+		kickTangent(delta / 2);
+
+		// Growth rate of the tangent vector, the rate of change of its length over its length
+		double lengthSquared = 0, rate = 0;
+		for (int i = 0; i < bodies.size; i++) {
+			lengthSquared += tangentX[i] * tangentX[i] + tangentY[i] * tangentY[i]
+					+ tangentVelocityX[i] * tangentVelocityX[i] + tangentVelocityY[i] * tangentVelocityY[i];
+			rate += tangentX[i] * tangentVelocityX[i] + tangentY[i] * tangentVelocityY[i]
+					+ tangentVelocityX[i] * tangentAccelerationX[i] + tangentVelocityY[i] * tangentAccelerationY[i];
+		}
+		rate /= lengthSquared;
+
+		time += delta;
+		weightedGrowth += 2 * rate * time * delta;
+		megnoIntegral += weightedGrowth / time * delta;
+
+		// The equations are linear, so the tangent vector can be scaled back down before it overflows
+		double length = Math.sqrt(lengthSquared);
+		logGrowth += Math.log(length);
+		for (int i = 0; i < bodies.size; i++) {
+			tangentX[i] /= length;
+			tangentY[i] /= length;
+			tangentVelocityX[i] /= length;
+			tangentVelocityY[i] /= length;
+			tangentAccelerationX[i] /= length;
+			tangentAccelerationY[i] /= length;
+		}
+	}
+
+	/**
+	 * Start a new random tangent vector of length 1 and forget the growth measured so far
+	 *
+	 * @param bodies The bodies that will be advanced next
+	 */
+	public void reset(BodyStore bodies) {
+		this.bodies = bodies;
+		int size = bodies.size;
+		tangentX = new double[size];
+		tangentY = new double[size];
+		tangentVelocityX = new double[size];
+		tangentVelocityY = new double[size];
+		tangentAccelerationX = new double[size];
+		tangentAccelerationY = new double[size];
+		tangentAccelerationsCurrent = false;
+
+		Random random = new Random(SEED);
+		double lengthSquared = 0;
+		for (int i = 0; i < size; i++) {
+			tangentX[i] = random.nextGaussian();
+			tangentY[i] = random.nextGaussian();
+			tangentVelocityX[i] = random.nextGaussian();
+			tangentVelocityY[i] = random.nextGaussian();
+			lengthSquared += tangentX[i] * tangentX[i] + tangentY[i] * tangentY[i]
+					+ tangentVelocityX[i] * tangentVelocityX[i] + tangentVelocityY[i] * tangentVelocityY[i];
+		}
+		double length = Math.sqrt(lengthSquared);
+		for (int i = 0; i < size; i++) {
+			tangentX[i] /= length;
+			tangentY[i] /= length;
+			tangentVelocityX[i] /= length;
+			tangentVelocityY[i] /= length;
+		}
+
+		time = 0;
+		weightedGrowth = 0;
+		megnoIntegral = 0;
+		logGrowth = 0;
+	}
+
+	/**
+	 * Change the tangent velocities based off the tangent accelerations
+	 *
+	 * @param delta Time to advance by in seconds
+	 */
+	private void kickTangent(double delta) {
+		for (int i = 0; i < bodies.size; i++) {
+			tangentVelocityX[i] += tangentAccelerationX[i] * delta;
+			tangentVelocityY[i] += tangentAccelerationY[i] * delta;
+		}
+	}
+
+	/**
+	 * Calculate the change in every body's acceleration caused by the tangent vector's change in positions
+	 *
+	 * @param bodies The body store
+	 */
+	private void computeTangentAccelerations(BodyStore bodies) {
+		double[] positionX = bodies.positionX, positionY = bodies.positionY, mass = bodies.mass;
+		for (int i = 0; i < bodies.size; i++) {
+			double ax = 0, ay = 0;
+			for (int j = 0; j < bodies.size; j++) {
+				if (j == i) continue;
+				double dx = (positionX[j] - positionX[i]) * Physics.METERS_PER_AU;
+				double dy = (positionY[j] - positionY[i]) * Physics.METERS_PER_AU;
+				double tx = tangentX[j] - tangentX[i], ty = tangentY[j] - tangentY[i];
+				double distanceSquared = dx * dx + dy * dy;
+				double scale = mass[j] / (distanceSquared * Math.sqrt(distanceSquared));
+				// Derivative of G m r / |r|^3 along the tangent
+				double along = 3 * (dx * tx + dy * ty) / distanceSquared;
+				ax += (tx - along * dx) * scale;
+				ay += (ty - along * dy) * scale;
+			}
+			tangentAccelerationX[i] = ax * Physics.G;
+			tangentAccelerationY[i] = ay * Physics.G;
+		}
+		tangentAccelerationsCurrent = true;
+	}
+
+	/**
+	 * Get the mean MEGNO since the tangent vector was started.
+	 * Around 2 for regular motion, and larger and growing for chaotic motion.
+	 *
+	 * @return The mean MEGNO, 0 before the first step
+	 */
+	public double getMegno() {
+		return time > 0 ? megnoIntegral / time : 0;
+	}
+
+	/**
+	 * Get an estimate of the largest Lyapunov exponent from the tangent vector's growth so far.
+	 * Its inverse is the time over which nearby orbits move apart by a factor of e.
+	 * For regular motion it falls towards 0 as time goes on.
+	 *
+	 * @return The estimate in 1/s, 0 before the first step
+	 */
+	public double getLyapunov() {
+		return time > 0 ? logGrowth / time : 0;
+	}
+
+	public Integrator getIntegrator() {
+		return integrator;
+	}
+}
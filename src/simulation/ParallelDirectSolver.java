@@ -0,0 +1,47 @@
+package simulation;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Direct summation gravity solver that spreads the bodies across every core.
+ * Each fork/join task sums the pull on its own slice of bodies and writes only that slice's accelerations,
+ * so tasks never share writes. Results are identical to {@link DirectSolver}.
+ */
+public class ParallelDirectSolver implements GravitySolver {
+
+	/**
+	 * Fewest bodies in a slice, below this splitting costs more than it saves
+	 */
+	private static final int MIN_SLICE = 16;
+	/**
+	 * Number of slices to aim for per thread, so faster threads can steal work from slower ones
+	 */
+	private static final int SLICES_PER_THREAD = 8;
+
+	/**
+	 * The pool to run tasks on
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Create a parallel direct solver using the common fork/join pool
+	 */
+	public ParallelDirectSolver() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Create a parallel direct solver
+	 *
+	 * @param pool The pool to run tasks on
+	 */
+	public ParallelDirectSolver(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	@Override
+	public void computeAccelerations(BodyStore bodies) {
+		int slice = Math.max(MIN_SLICE, bodies.size / (pool.getParallelism() * SLICES_PER_THREAD));
+		RangeTask.invoke(pool, bodies.size, slice, (from, to) -> DirectSolver.computeAccelerations(bodies, from, to));
+	}
+}
@@ -0,0 +1,368 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Advances a system over a long time by splitting the time into windows and integrating the windows at the same time.
+ * Small systems cannot spread one step over many threads, but a long run can be spread over time instead.
+ * <p>
+ * A cheap coarse integration first predicts the state at the start of each window.
+ * Each iteration then integrates every window accurately from its predicted start at the same time, and sweeps
+ * through the windows correcting each prediction by how far the coarse integration was out over the window before:
+ * U[n+1] = G(U[n]) + F(U_old[n]) - G(U_old[n]), where F is the accurate integration and G the coarse one.
+ * After k iterations the first k windows are exact, so the result matches a sequential run after at most one
+ * iteration per window, but it usually settles much sooner. Iterations stop once no window's end state
+ * moves by more than the tolerance.
+ * <p>
+ * The coarse integration needs to follow the accurate one closely for the iterations to settle quickly,
+ * yet be far cheaper for the run to finish sooner than a sequential one. By default it uses the Wisdom-Holman integrator,
+ * which suits systems dominated by a sun, with steps {@link #DEFAULT_COARSE_SCALE} times longer than usual.
+ * The accurate integration should be one with small errors in each body's orbital phase, such as IAS15.
+ * Unless a number of windows is given, it is chosen for each run from the number of threads, the length of the run
+ * and the measured cost of the coarse integration relative to the accurate one, falling back to a single window,
+ * which is a plain sequential run, when splitting is not expected to pay off.
+ * <p>
+ * In practice there is no speedup at typical core counts. IAS15 takes long steps in the solar system, so even
+ * with 4 times longer steps the coarse integration costs under 1% of the accurate one, and over 50 years
+ * the iterations take 8 of 8 windows or 20 of 32 windows to settle to 1e-7 AU. That predicts 0.9 times the speed
+ * of a sequential run with 8 threads and 1.3 times with 32. Leapfrog's phase errors in Mercury's orbit mean it
+ * needs one iteration per window and gains nothing. Parareal only pays off on many cores, over runs long enough
+ * for many windows, with a coarse integration that is both much cheaper and close to the accurate one.
+ * <p>
+ * The accurate integration restarts at the start of each window, so results differ from an uninterrupted run
+ * by about as much as the timestep controller's choice of steps affects it.
+ */
+public class Parareal {
+
+	/**
+	 * Largest change in any body's position between iterations for the windows to count as settled, in AU
+	 */
+	public static final double DEFAULT_TOLERANCE = 1e-7;
+	/**
+	 * Number of windows that has the number chosen for each run, from the length of the run and the relative cost
+	 * of the two integrations
+	 */
+	public static final int AUTOMATIC = 0;
+	/**
+	 * How many times longer the coarse integration's steps are than the timestep controller would choose.
+	 * With Wisdom-Holman this gives around 8 steps per orbit of the innermost body. Longer steps make the coarse
+	 * integration cheaper, but its errors in orbital phase then take more iterations to correct.
+	 */
+	public static final double DEFAULT_COARSE_SCALE = 4;
+
+	/**
+	 * How many times longer the run is than the stretch at its start integrated both ways to compare
+	 * the cost of the two integrations
+	 */
+	private static final int PROBE_FRACTION = 100;
+	/**
+	 * Fewest coarse steps a window should span, so that cutting the run into windows does not cut the coarse steps short
+	 */
+	private static final int MIN_COARSE_STEPS = 10;
+	/**
+	 * Iterations assumed when deciding whether splitting the run into windows can be faster at all
+	 */
+	private static final int EXPECTED_ITERATIONS = 2;
+
+	/**
+	 * Create a stepper for each accurate and each coarse integration, as solvers and integrators keep state between steps
+	 */
+	private final Supplier<Stepper> fineSteppers, coarseSteppers;
+	/**
+	 * Number of windows to split the time into, or {@link #AUTOMATIC}
+	 */
+	private final int windows;
+	/**
+	 * Number of windows to integrate at once
+	 */
+	private final int threads;
+	/**
+	 * Largest change in any body's position between iterations for the windows to count as settled, in AU
+	 */
+	private double tolerance = DEFAULT_TOLERANCE;
+	/**
+	 * How many times longer the coarse integration's steps are than the timestep controller would choose
+	 */
+	private double coarseScale = DEFAULT_COARSE_SCALE;
+
+	/**
+	 * Number of windows used by the last call to advance
+	 */
+	private int windowsUsed;
+	/**
+	 * Time taken by the coarse integration over the time taken by the accurate one, measured by the last call to advance
+	 * that chose the number of windows, 0 if none did
+	 */
+	private double costRatio;
+	/**
+	 * Number of iterations used by the last call to advance
+	 */
+	private int iterations;
+	/**
+	 * Number of accurate steps taken by the last call to advance, across every window and iteration
+	 */
+	private long fineSteps;
+
+	/**
+	 * Create a parareal integration with a Wisdom-Holman coarse integration, choosing the number of windows
+	 * for each run and integrating up to one window per processor at once
+	 *
+	 * @param fineSteppers Creates a stepper for each accurate integration
+	 */
+	public Parareal(Supplier<Stepper> fineSteppers) {
+		this(fineSteppers, () -> new Stepper(new DirectSolver(), new WisdomHolmanIntegrator()),
+				AUTOMATIC, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create a parareal integration
+	 *
+	 * @param fineSteppers Creates a stepper for each accurate integration
+	 * @param coarseSteppers Creates a stepper for each coarse integration
+	 * @param windows Number of windows to split the time into, or {@link #AUTOMATIC} to choose for each run
+	 * @param threads Number of windows to integrate at once
+	 */
+	public Parareal(Supplier<Stepper> fineSteppers, Supplier<Stepper> coarseSteppers, int windows, int threads) {
+		if (windows < 1 && windows != AUTOMATIC)
+			throw new IllegalArgumentException("Must have at least 1 window: " + windows);
+		if (threads < 1)
+			throw new IllegalArgumentException("Must have at least 1 thread: " + threads);
+		this.fineSteppers = fineSteppers;
+		this.coarseSteppers = coarseSteppers;
+		this.windows = windows;
+		this.threads = threads;
+	}
+
+	/**
+	 * Advance the bodies by an amount of simulated time
+	 *
+	 * @param bodies The bodies to advance
+	 * @param time Amount of time to advance by in seconds
+	 * @return The number of iterations needed
+	 */
+	public int advance(BodyStore bodies, double time) {
+		return advance(bodies, time, windows == AUTOMATIC ? chooseWindows(bodies, time) : windows);
+	}
+
+	/**
+	 * Advance the bodies by an amount of simulated time, split into a given number of windows
+	 *
+	 * @param bodies The bodies to advance
+	 * @param time Amount of time to advance by in seconds
+	 * @param windows Number of windows to split the time into
+	 * @return The number of iterations needed
+	 */
+	public int advance(BodyStore bodies, double time, int windows) {
+		if (windows < 1)
+			throw new IllegalArgumentException("Must have at least 1 window: " + windows);
+		fineSteps = 0;
+		windowsUsed = windows;
+		iterations = 1;
+		if (windows == 1) {
+			// A single window is just the accurate integration
+			bodies.copyFrom(integrate(bodies, time, false));
+			return iterations;
+		}
+		double window = time / windows;
+		// Start of each window, and the coarse integration of each window from its start in the last iteration
+		BodyStore[] starts = new BodyStore[windows + 1];
+		BodyStore[] coarse = new BodyStore[windows + 1];
+		starts[0] = copy(bodies);
+		for (int n = 0; n < windows; n++) {
+			coarse[n + 1] = integrate(starts[n], window, true);
+			starts[n + 1] = copy(coarse[n + 1]);
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, windows));
+		try {
+			iterations = 0;
+			for (int first = 0; first < windows; first++) {
+				iterations++;
+				// Integrate every unsettled window accurately at the same time
+				List<Future<BodyStore>> results = new ArrayList<>();
+				for (int n = first; n < windows; n++) {
+					BodyStore start = starts[n];
+					results.add(pool.submit(() -> integrate(start, window, false)));
+				}
+				BodyStore[] fine = new BodyStore[windows + 1];
+				for (int n = first; n < windows; n++)
+					fine[n + 1] = results.get(n - first).get();
+
+				// Correct each window's end in turn, starting from the corrected end of the window before
+				double change = 0;
+				for (int n = first; n < windows; n++) {
+					BodyStore predicted = integrate(starts[n], window, true);
+					change = Math.max(change, correct(starts[n + 1], predicted, fine[n + 1], coarse[n + 1]));
+					coarse[n + 1] = predicted;
+				}
+				if (change <= tolerance)
+					break;
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IllegalStateException("Parareal window failed", e);
+		} finally {
+			pool.shutdownNow();
+		}
+		bodies.copyFrom(starts[windows]);
+		return iterations;
+	}
+
+	/**
+	 * Choose how many windows to split a run into.
+	 * Sequentially the run costs one accurate integration of the whole time. Split into N windows, each iteration
+	 * costs an accurate integration of one window and a coarse integration of the whole time, so the speedup is
+	 * at best 1 / (G + K (1 / N + G)), where G is the coarse integration's cost relative to the accurate one
+	 * and K the number of iterations. Windows beyond the number of threads or 1 / G gain little,
+	 * and windows too short for a few coarse steps make the coarse integration no cheaper.
+	 * G is measured by integrating the start of the run both ways. These probes are not part of the run,
+	 * so their steps are not counted in {@link #getFineSteps()}.
+	 *
+	 * @param bodies The bodies at the start of the run
+	 * @param time Length of the run in seconds
+	 * @return The number of windows, 1 if splitting the run is not expected to be faster
+	 */
+	public int chooseWindows(BodyStore bodies, double time) {
+		double probe = time / PROBE_FRACTION;
+		// Untimed probes first, so neither timed probe includes compiling its code
+		probe(bodies, probe, true);
+		probe(bodies, probe, false);
+		long start = System.nanoTime();
+		int coarseSteps = probe(bodies, probe, true);
+		long coarseTime = System.nanoTime() - start;
+		start = System.nanoTime();
+		probe(bodies, probe, false);
+		long fineTime = System.nanoTime() - start;
+		costRatio = (double) coarseTime / Math.max(fineTime, 1);
+
+		double count = Math.min(threads, Math.floor(1 / costRatio));
+		count = Math.min(count, Math.floor((double) coarseSteps * PROBE_FRACTION / MIN_COARSE_STEPS));
+		if (count < 2 || costRatio + EXPECTED_ITERATIONS * (1 / count + costRatio) >= 1)
+			return 1;
+		return (int) count;
+	}
+
+	/**
+	 * Integrate a copy of a state to measure the cost of an integration, without counting its steps
+	 *
+	 * @param start The state to start from, which is not changed
+	 * @param time Length of the probe in seconds
+	 * @param cheap True for the coarse integration, false for the accurate one
+	 * @return The number of steps taken
+	 */
+	private int probe(BodyStore start, double time, boolean cheap) {
+		Stepper stepper = cheap ? coarseSteppers.get() : fineSteppers.get();
+		return getController(cheap).advance(stepper, copy(start), time);
+	}
+
+	/**
+	 * Integrate a copy of a state over one window
+	 *
+	 * @param start The state at the start of the window, which is not changed
+	 * @param time Length of the window in seconds
+	 * @param cheap True for the coarse integration, false for the accurate one
+	 * @return The state at the end of the window
+	 */
+	private BodyStore integrate(BodyStore start, double time, boolean cheap) {
+		BodyStore bodies = copy(start);
+		Stepper stepper = cheap ? coarseSteppers.get() : fineSteppers.get();
+		int steps = getController(cheap).advance(stepper, bodies, time);
+		if (!cheap) {
+			synchronized (this) {
+				fineSteps += steps;
+			}
+		}
+		return bodies;
+	}
+
+	/**
+	 * Create a timestep controller for an integration
+	 *
+	 * @param cheap True for the coarse integration, false for the accurate one
+	 * @return The timestep controller
+	 */
+	private TimestepController getController(boolean cheap) {
+		if (cheap)
+			return new TimestepController(TimestepController.DEFAULT_ETA * coarseScale, TimestepController.DEFAULT_MAX_STEPS);
+		return new TimestepController();
+	}
+
+	/**
+	 * Set a window's end to the new coarse prediction corrected by the last iteration's error in the coarse integration
+	 *
+	 * @param end The window's end state to correct
+	 * @param predicted The coarse integration from the window's new start
+	 * @param fine The accurate integration from the window's old start
+	 * @param coarse The coarse integration from the window's old start
+	 * @return The largest change in any body's position in AU
+	 */
+	private static double correct(BodyStore end, BodyStore predicted, BodyStore fine, BodyStore coarse) {
+		double change = 0;
+		for (int i = 0; i < end.size; i++) {
+			double x = predicted.positionX[i] + fine.positionX[i] - coarse.positionX[i];
+			double y = predicted.positionY[i] + fine.positionY[i] - coarse.positionY[i];
+			change = Math.max(change, Math.max(Math.abs(x - end.positionX[i]), Math.abs(y - end.positionY[i])));
+			end.setPosition(i, x, y);
+			end.setVelocity(i, predicted.velocityX[i] + fine.velocityX[i] - coarse.velocityX[i],
+					predicted.velocityY[i] + fine.velocityY[i] - coarse.velocityY[i]);
+		}
+		return change;
+	}
+
+	/**
+	 * Copy a body store
+	 *
+	 * @param bodies The store to copy
+	 * @return The copy
+	 */
+	private static BodyStore copy(BodyStore bodies) {
+		BodyStore copy = new BodyStore(bodies.size);
+		copy.copyFrom(bodies);
+		return copy;
+	}
+
+	public int getWindows() {
+		return windows;
+	}
+
+	public int getWindowsUsed() {
+		return windowsUsed;
+	}
+
+	public double getCostRatio() {
+		return costRatio;
+	}
+
+	public int getIterations() {
+		return iterations;
+	}
+
+	public long getFineSteps() {
+		return fineSteps;
+	}
+
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	public void setTolerance(double tolerance) {
+		if (tolerance < 0)
+			throw new IllegalArgumentException("Tolerance must not be negative: " + tolerance);
+		this.tolerance = tolerance;
+	}
+
+	public double getCoarseScale() {
+		return coarseScale;
+	}
+
+	public void setCoarseScale(double coarseScale) {
+		if (coarseScale <= 0)
+			throw new IllegalArgumentException("Coarse scale must be positive: " + coarseScale);
+		this.coarseScale = coarseScale;
+	}
+}
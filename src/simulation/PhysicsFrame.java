@@ -0,0 +1,37 @@
+package simulation;
+
+/**
+ * A completed state published by the physics thread for the renderer to draw
+ */
+public class PhysicsFrame {
+
+	/**
+	 * Copy of the bodies as they were after the last step
+	 */
+	final BodyStore bodies = new BodyStore();
+	/**
+	 * Simulated time of the state in seconds
+	 */
+	double time;
+	/**
+	 * Real time from {@link System#nanoTime()} at which the state was due,
+	 * the time it was published less the part of a tick left in the physics thread's accumulator
+	 */
+	long nanos;
+	/**
+	 * Number of edits the physics thread had applied when the state was published
+	 */
+	long generation;
+
+	public BodyStore getBodies() {
+		return bodies;
+	}
+
+	public double getTime() {
+		return time;
+	}
+
+	public long getNanos() {
+		return nanos;
+	}
+}
@@ -0,0 +1,314 @@
+package simulation;
+
+import util.CheckpointWriter;
+import util.Clock;
+import util.TripleBuffer;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Advances the bodies on their own thread at a fixed number of ticks per second of real time,
+ * each tick covering the clock's multiplier divided by the tick rate in simulated time,
+ * or as much of it as the step scheduler fits into the tick.
+ * Completed states are handed to the renderer through a triple buffer, so neither thread waits on the other
+ * and slow frames or open dialogs do not hold up the simulation.
+ * <p>
+ * The physics thread owns its body store. Changes from other threads, such as a body being edited or a new
+ * system being loaded, are queued and applied between ticks, and states published before a queued change
+ * was applied are not handed out.
+ */
+public class PhysicsThread extends Thread {
+
+	/**
+	 * Number of ticks per second of real time when none is given
+	 */
+	public static final int DEFAULT_TICK_RATE = 120;
+	/**
+	 * Most real time to catch up on after falling behind in nanoseconds, anything older is dropped.
+	 * Matches the 0.05 second limit the clock puts on a frame, but is never less than one tick.
+	 */
+	private static final long MAX_BACKLOG = 50000000L;
+
+	/**
+	 * Length of a tick in nanoseconds.
+	 * Lower tick rates leave more time for each tick's steps, and the renderer interpolates between them.
+	 */
+	private volatile long tickNanos = 1000000000L / DEFAULT_TICK_RATE;
+	/**
+	 * Stepper used to advance the bodies
+	 */
+	private final Stepper stepper;
+	/**
+	 * Chooses how many steps to split each tick into
+	 */
+	private final TimestepController timestepController = new TimestepController();
+	/**
+	 * Limits each tick to the steps that fit in its real time
+	 */
+	private final StepScheduler scheduler = new StepScheduler(timestepController);
+	/**
+	 * The bodies being simulated, only touched by the physics thread
+	 */
+	private BodyStore bodies;
+	/**
+	 * Simulated time in seconds
+	 */
+	private double time;
+	/**
+	 * Changes waiting to be applied by the physics thread
+	 */
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	/**
+	 * Number of changes queued, and number applied by the physics thread
+	 */
+	private final AtomicLong requestedGeneration = new AtomicLong();
+	private long generation;
+	/**
+	 * Completed states on their way to the renderer
+	 */
+	private final TripleBuffer<PhysicsFrame> frames = new TripleBuffer<>(new PhysicsFrame(), new PhysicsFrame(), new PhysicsFrame());
+	/**
+	 * False once the thread has been asked to stop
+	 */
+	private volatile boolean running = true;
+	/**
+	 * Writes checkpoints of the bodies in the background, null if none are taken
+	 */
+	private volatile CheckpointWriter checkpoints;
+	/**
+	 * Real time between checkpoints in nanoseconds
+	 */
+	private volatile long checkpointNanos;
+	/**
+	 * Encoded entities the bodies belong to, written with each checkpoint. Only touched by the physics thread,
+	 * so it always changes at the same tick as the bodies.
+	 */
+	private CheckpointWriter.EncodedEntities checkpointEntities;
+
+	/**
+	 * Create a physics thread, which starts advancing the bodies once started
+	 *
+	 * @param stepper Stepper used to advance the bodies
+	 * @param bodies The bodies to simulate, which are copied
+	 * @param time Simulated time of the bodies in seconds
+	 */
+	public PhysicsThread(Stepper stepper, BodyStore bodies, double time) {
+		super("Physics");
+		setDaemon(true);
+		this.stepper = stepper;
+		this.bodies = copyOf(bodies);
+		this.time = time;
+	}
+
+	@Override
+	public void run() {
+		long last = System.nanoTime();
+		long lastCheckpoint = last;
+		long backlog = 0;
+		while (running) {
+			boolean changed = runTasks();
+
+			long tickNanos = this.tickNanos;
+			long maxBacklog = Math.max(MAX_BACKLOG, tickNanos);
+			long now = System.nanoTime();
+			backlog += now - last;
+			last = now;
+			if (backlog > maxBacklog) {
+				// Count the dropped time as requested but not simulated
+				Clock.updateSimulatedTime(requestedTime(backlog - maxBacklog), 0);
+				backlog = maxBacklog;
+			}
+			while (backlog >= tickNanos) {
+				tick(tickNanos);
+				backlog -= tickNanos;
+				changed = true;
+			}
+			if (changed)
+				publish(backlog);
+			// Only the copy into the writer's buffer is paid for here, the writer thread does the disk work
+			CheckpointWriter checkpoints = this.checkpoints;
+			if (checkpoints != null && now - lastCheckpoint >= checkpointNanos) {
+				checkpoints.offer(bodies, checkpointEntities, time);
+				lastCheckpoint = now;
+			}
+
+			LockSupport.parkNanos(tickNanos - backlog);
+		}
+	}
+
+	/**
+	 * Advance the bodies by one tick
+	 *
+	 * @param tickNanos Length of the tick in nanoseconds
+	 */
+	private void tick(long tickNanos) {
+		double requested = requestedTime(tickNanos);
+		int steps = scheduler.advance(stepper, bodies, requested, tickNanos);
+		double advanced = scheduler.getAdvanced();
+		Clock.updateUPS(steps * bodies.size());
+		Clock.updateSimulatedTime(requested, advanced);
+		time += advanced;
+	}
+
+	/**
+	 * Find how much simulated time the clock asks for in an amount of real time
+	 *
+	 * @param nanos Real time in nanoseconds
+	 * @return Simulated time in seconds, 0 if paused
+	 */
+	private static double requestedTime(long nanos) {
+		return Clock.isPaused() ? 0 : Clock.getMultiplier() * (nanos / 1e9);
+	}
+
+	/**
+	 * Apply every queued change
+	 *
+	 * @return True if any change was applied, otherwise false
+	 */
+	private boolean runTasks() {
+		boolean ran = false;
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			task.run();
+			ran = true;
+		}
+		return ran;
+	}
+
+	/**
+	 * Copy the current state into the triple buffer and hand it to the renderer
+	 *
+	 * @param backlog Real time built up since the last tick was due in nanoseconds
+	 */
+	private void publish(long backlog) {
+		PhysicsFrame frame = frames.getWriteBuffer();
+		frame.bodies.copyFrom(bodies);
+		frame.time = time;
+		frame.nanos = System.nanoTime() - backlog;
+		frame.generation = generation;
+		frames.publish();
+	}
+
+	/**
+	 * Queue a change to be applied by the physics thread
+	 *
+	 * @param task The change
+	 */
+	private void submit(Runnable task) {
+		long requested = requestedGeneration.incrementAndGet();
+		tasks.add(() -> {
+			task.run();
+			generation = requested;
+		});
+	}
+
+	/**
+	 * Queue a change to the bodies being simulated
+	 *
+	 * @param edit The change, which is given the physics thread's body store
+	 */
+	public void edit(Consumer<BodyStore> edit) {
+		submit(() -> edit.accept(bodies));
+	}
+
+	/**
+	 * Queue a new state of the same system to replace the bodies being simulated
+	 *
+	 * @param bodies The new bodies, which are copied straight away
+	 * @param time Simulated time of the new bodies in seconds
+	 */
+	public void load(BodyStore bodies, double time) {
+		BodyStore copy = copyOf(bodies);
+		submit(() -> {
+			this.bodies = copy;
+			this.time = time;
+			scheduler.reset();
+		});
+	}
+
+	/**
+	 * Queue a new system to replace the bodies being simulated, along with its entities for checkpoints
+	 *
+	 * @param bodies The new bodies, which are copied straight away
+	 * @param time Simulated time of the new bodies in seconds
+	 * @param entities The new system's encoded entities
+	 */
+	public void load(BodyStore bodies, double time, CheckpointWriter.EncodedEntities entities) {
+		BodyStore copy = copyOf(bodies);
+		submit(() -> {
+			this.bodies = copy;
+			this.time = time;
+			checkpointEntities = entities;
+			scheduler.reset();
+		});
+	}
+
+	/**
+	 * Queue new encoded entities to be written with later checkpoints, after an entity has been edited
+	 *
+	 * @param entities The encoded entities
+	 */
+	public void setCheckpointEntities(CheckpointWriter.EncodedEntities entities) {
+		// Does not change the bodies, so states already published are still shown
+		tasks.add(() -> checkpointEntities = entities);
+	}
+
+	/**
+	 * Take the newest state published since the last call. Only called by the render thread.
+	 *
+	 * @return The newest state, or null if there is none or it was published before a queued change was applied
+	 */
+	public PhysicsFrame poll() {
+		if (!frames.update())
+			return null;
+		PhysicsFrame frame = frames.getReadBuffer();
+		return frame.generation == requestedGeneration.get() ? frame : null;
+	}
+
+	/**
+	 * Take checkpoints of the bodies at regular intervals of real time, between ticks
+	 *
+	 * @param checkpoints The writer to hand the checkpoints to, or null to stop taking them
+	 * @param interval Real time between checkpoints in seconds
+	 */
+	public void setCheckpoints(CheckpointWriter checkpoints, double interval) {
+		checkpointNanos = (long) (interval * 1e9);
+		this.checkpoints = checkpoints;
+	}
+
+	public StepScheduler getScheduler() {
+		return scheduler;
+	}
+
+	public int getTickRate() {
+		return (int) Math.round(1e9 / tickNanos);
+	}
+
+	public void setTickRate(int tickRate) {
+		if (tickRate < 1)
+			throw new IllegalArgumentException("Tick rate must be at least 1: " + tickRate);
+		tickNanos = 1000000000L / tickRate;
+	}
+
+	/**
+	 * Ask the thread to stop after its current tick
+	 */
+	public void shutdown() {
+		running = false;
+	}
+
+	/**
+	 * Copy a body store
+	 *
+	 * @param bodies The store to copy
+	 * @return A new store holding the same bodies
+	 */
+	private static BodyStore copyOf(BodyStore bodies) {
+		BodyStore copy = new BodyStore(bodies.size);
+		copy.copyFrom(bodies);
+		return copy;
+	}
+}
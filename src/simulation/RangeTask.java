@@ -0,0 +1,75 @@
+package simulation;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork/join task that runs an action over a range of body indices,
+ * splitting the range in half until each piece is small enough to run directly.
+ * Idle threads steal the unstarted halves, so uneven pieces balance out.
+ */
+class RangeTask extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * An action run over part of a range
+	 */
+	interface RangeAction {
+
+		/**
+		 * Run the action over a range
+		 *
+		 * @param from Start of the range
+		 * @param to End of the range, exclusive
+		 */
+		void apply(int from, int to);
+	}
+
+	/**
+	 * The action to run
+	 */
+	private final RangeAction action;
+	/**
+	 * The range to run the action over
+	 */
+	private final int from, to;
+	/**
+	 * Ranges this size or smaller are run without splitting
+	 */
+	private final int threshold;
+
+	private RangeTask(RangeAction action, int from, int to, int threshold) {
+		this.action = action;
+		this.from = from;
+		this.to = to;
+		this.threshold = threshold;
+	}
+
+	@Override
+	protected void compute() {
+		if (to - from <= threshold) {
+			action.apply(from, to);
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		invokeAll(new RangeTask(action, from, middle, threshold), new RangeTask(action, middle, to, threshold));
+	}
+
+	/**
+	 * Run an action over a range on a pool and wait for every piece to finish.
+	 * Small ranges are run on the calling thread.
+	 *
+	 * @param pool The pool to run on
+	 * @param size End of the range, starting from 0
+	 * @param threshold Ranges this size or smaller are run without splitting
+	 * @param action The action to run
+	 */
+	static void invoke(ForkJoinPool pool, int size, int threshold, RangeAction action) {
+		threshold = Math.max(threshold, 1);
+		if (size <= threshold || pool.getParallelism() == 1)
+			action.apply(0, size);
+		else
+			pool.invoke(new RangeTask(action, 0, size, threshold));
+	}
+}
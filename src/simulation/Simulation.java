@@ -13,27 +13,51 @@ import org.lwjgl.util.vector.Vector3f;
 import renderEngine.DisplayManager;
 import renderEngine.Loader;
 import renderEngine.MasterRenderer;
+import util.Checkpoint;
+import util.CheckpointWriter;
 import util.Clock;
 import util.XMLReader;
 
 import javax.swing.*;
 import java.io.File;
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Created by Christopher on 23/04/2016.
  */
 public class Simulation {
 
+	/**
+	 * Number of bodies to check against direct summation when reporting a solver's accuracy
+	 */
+	private static final int ACCURACY_SAMPLES = 1000;
+	/**
+	 * File the running simulation is saved to and restored from
+	 */
+	private static final File CHECKPOINT_FILE = new File("simulation.checkpoint");
+	/**
+	 * Real time between automatic checkpoints in seconds
+	 */
+	private static final double AUTOSAVE_INTERVAL = 60;
+	/**
+	 * Number of automatic checkpoints to keep as well as the newest
+	 */
+	private static final int AUTOSAVES_KEPT = 3;
+
 	/**
 	 * True if we should draw trails, otherwise false
 	 */
 	public static boolean drawTrails = false;
 	/**
-	 * True if testing for min/max sun mass, otherwise false
+	 * The sweep testing for min/max sun mass, null if none is running
 	 */
-	private static boolean isTestRunning = false;
+	private static volatile MassSweep sweep;
+	/**
+	 * Fraction of each sweep trial to run before classifying it by its MEGNO, or 0 to run every trial in full
+	 */
+	private static double megnoFraction;
 	/**
 	 * Scale of entity sizes.
 	 * 1.0 represents a radius of 1 AU
@@ -44,16 +68,37 @@ public class Simulation {
 	 */
 	private static List<Entity> entities;
 	/**
-	 * Array of all entities in the solar system at their state before the test started
+	 * Physical state of all entities in the solar system, as last published by the physics thread
 	 */
-	private static List<Entity> originalEntities;
-
-	private static double currentMassTest;
-
-	private static double currentTestStart = 0;
-
-	private static List<Double> successfulTests = new ArrayList<>();
-
+	private static BodyStore bodies;
+	/**
+	 * Physical state of all entities as of the physics state before the one shown, drawn from for interpolation
+	 */
+	private static BodyStore previousBodies = new BodyStore();
+	/**
+	 * The system as it was when loaded, used to reset it and to test its sun masses
+	 */
+	private static SystemState loadedState;
+	/**
+	 * Real time in nanoseconds the previous and current physics states were due
+	 */
+	private static long previousNanos, currentNanos;
+	/**
+	 * How far between the previous and current physics states the entities are drawn this frame, between 0 and 1
+	 */
+	private static float interpolation = 1;
+	/**
+	 * Stepper used to advance the bodies
+	 */
+	private static Stepper stepper = new Stepper();
+	/**
+	 * Thread advancing the bodies, null until the first system is loaded
+	 */
+	private static PhysicsThread physics;
+	/**
+	 * Writes automatic checkpoints in the background, so a long run can be restored if the program dies
+	 */
+	private static final CheckpointWriter autosaves = new CheckpointWriter(new File("autosave.checkpoint"), AUTOSAVES_KEPT);
 	/**
 	 * The program's entry point, this method is executed when the simulation is run.
 	 *
@@ -67,11 +112,19 @@ public class Simulation {
 
 		// Create a list to store all entities currently in the simulation
 		// Load the entities from an xml file
-		entities = XMLReader.loadSystem("/xml/theSolarSystem.xml");
+		setEntities(XMLReader.loadSystem("/xml/theSolarSystem.xml"));
+
+		// Start advancing the bodies on their own thread
+		physics = new PhysicsThread(stepper, bodies, Clock.getTotalTime());
+		physics.setCheckpoints(autosaves, AUTOSAVE_INTERVAL);
+		// Give the physics thread the entities to write with its checkpoints
+		entitiesEdited();
+		autosaves.start();
+		physics.start();
 
 		// Create a light source at the location of the sun
 		// Assumes sun is the first object of the array
-		Light light = new Light(entities.get(0).getPosition3f(), new Vector3f(1, 1, 0.8f));
+		Light light = new Light(new Vector3f(entities.get(0).getPosition3f()), new Vector3f(1, 1, 0.8f));
 
 		// Create a camera i.e. the point from which we observe the simulation
 		Camera camera = new Camera(new Vector3f(0, 5, 0), 90, 0, 0);
@@ -88,22 +141,26 @@ public class Simulation {
 			Clock.update();
 			getInput(camera);
 
-			// Update all the entities positions and rotations
-			for (int i = 0; i < 1000; i++) {
-				for (Entity entity : entities) {
-					entity.update(delta / 1000, entities);
-					Clock.updateUPS();
-				}
+			// Show the newest state from the physics thread and update all the entities rotations
+			PhysicsFrame frame = physics.poll();
+			if (frame != null) {
+				previousBodies.copyFrom(bodies);
+				previousNanos = currentNanos;
+				bodies.copyFrom(frame.getBodies());
+				currentNanos = frame.getNanos();
+				Clock.setTotalTime(frame.getTime());
 			}
+			interpolation = getInterpolation();
+			renderer.setInterpolation(previousBodies, interpolation);
+			for (Entity entity : entities)
+				entity.update(delta);
 			// Update the UI
 			ui.update();
 
-			if (isTestRunning) {
-				updateTest();
-			}
-
 			// Prepare all the entities for rendering
 			entities.forEach(renderer::processEntity);
+			// Keep the light on the sun as it is drawn
+			light.getPosition().set(getDrawnPosition(entities.get(0)));
 			// Render the entities
 			renderer.render(light, camera);
 			// Render the UI
@@ -114,6 +171,9 @@ public class Simulation {
 			DisplayManager.updateDisplay();
 		}
 
+		// Stop the physics thread, then let the checkpoint writer finish
+		physics.shutdown();
+		autosaves.shutdown();
 		// Clean up the UI
 		ui.cleanUp();
 		// Clean up the renderer (detach and delete shaders)
@@ -136,6 +196,47 @@ public class Simulation {
 		// Check if trails should be drawn
 		if (input.Keyboard.getKeyDownNoRepeats(Keyboard.KEY_T))
 			drawTrails = !drawTrails;
+		// Cycle between the leapfrog, Yoshida, Hermite, Wisdom-Holman, IAS15 and Euler integrators
+		if (input.Keyboard.getKeyDownNoRepeats(Keyboard.KEY_I)) {
+			Integrator integrator = stepper.getIntegrator();
+			if (integrator instanceof LeapfrogIntegrator)
+				integrator = new YoshidaIntegrator();
+			else if (integrator instanceof YoshidaIntegrator)
+				integrator = new HermiteIntegrator();
+			else if (integrator instanceof HermiteIntegrator)
+				integrator = new WisdomHolmanIntegrator();
+			else if (integrator instanceof WisdomHolmanIntegrator)
+				integrator = new IAS15Integrator();
+			else if (integrator instanceof IAS15Integrator)
+				integrator = new EulerIntegrator();
+			else
+				integrator = new LeapfrogIntegrator();
+			stepper.setIntegrator(integrator);
+			System.out.println("Using " + integrator.getClass().getSimpleName());
+		}
+		// Cycle between parallel direct summation, the Barnes-Hut solver, the fast multipole solver,
+		// direct summation, SIMD direct summation and tiled direct summation
+		if (input.Keyboard.getKeyDownNoRepeats(Keyboard.KEY_B)) {
+			GravitySolver solver = stepper.getSolver();
+			if (solver instanceof ParallelDirectSolver)
+				solver = new BarnesHutSolver();
+			else if (solver instanceof BarnesHutSolver)
+				solver = new FastMultipoleSolver();
+			else if (solver instanceof FastMultipoleSolver)
+				solver = new DirectSolver();
+			else if (solver instanceof DirectSolver)
+				solver = LaneDirectSolver.create();
+			else if (solver instanceof LaneDirectSolver)
+				solver = new TiledDirectSolver();
+			else
+				solver = new ParallelDirectSolver();
+			// Measure the new solver on the displayed bodies before the physics thread starts using it
+			if (solver instanceof DirectSolver || solver instanceof ParallelDirectSolver)
+				System.out.println("Using " + solver.getClass().getSimpleName());
+			else
+				System.out.println("Using " + solver.getClass().getSimpleName() + ", " + SolverAccuracy.measure(solver, bodies, ACCURACY_SAMPLES));
+			stepper.setSolver(solver);
+		}
 
 		// Update scale
 		if (input.Keyboard.getKeyDown(Keyboard.KEY_PRIOR)) { // Page up
@@ -158,7 +259,7 @@ public class Simulation {
 				File file = fc.getSelectedFile();
 				System.out.println(file);
 				try {
-					entities = XMLReader.loadSystem(file);
+					setEntities(XMLReader.loadSystem(file));
 				} catch (Exception e) {
 					System.err.println("Not a valid XML file!");
 					e.printStackTrace();
@@ -166,78 +267,207 @@ public class Simulation {
 			}
 		}
 
-		// If the enter key is pressed, start a test
-		if (input.Keyboard.getKeyDownNoRepeats(Keyboard.KEY_RETURN) && !isTestRunning) {
-			entities = XMLReader.loadMostRecent();
-			originalEntities = XMLReader.loadMostRecent();
-			successfulTests.clear();
-			Clock.setMultiplier(1576800000f);
-			currentMassTest = 1e20;
-			System.out.println("Started");
-			isTestRunning = true;
+		// If 'R' is pressed, reset the system to how it was when loaded
+		if (input.Keyboard.getKeyDownNoRepeats(Keyboard.KEY_R))
+			resetSystem();
+
+		// If F5 is pressed, save the simulation to the checkpoint file
+		if (input.Keyboard.getKeyDownNoRepeats(Keyboard.KEY_F5)) {
+			try {
+				Checkpoint.save(CHECKPOINT_FILE, entities, Clock.getTotalTime());
+				System.out.println("Saved checkpoint to " + CHECKPOINT_FILE);
+			} catch (IOException e) {
+				System.err.println("Could not save checkpoint!");
+				e.printStackTrace();
+			}
 		}
-	}
 
-	/**
-	 * Update the current test
-	 */
-	private static void updateTest() {
-		if (currentTestStart == 0) {
-			currentTestStart = Clock.getTotalTime();
-			entities.get(0).setMass(currentMassTest);
+		// If F9 is pressed, restore the simulation from the checkpoint file
+		if (input.Keyboard.getKeyDownNoRepeats(Keyboard.KEY_F9)) {
+			try {
+				Checkpoint checkpoint = Checkpoint.load(CHECKPOINT_FILE);
+				Clock.setTotalTime(checkpoint.getTime());
+				setEntities(checkpoint.getEntities());
+				System.out.println("Restored checkpoint from " + CHECKPOINT_FILE);
+			} catch (IOException e) {
+				System.err.println("Could not restore checkpoint!");
+				e.printStackTrace();
+			}
+		}
+
+		// If F10 is pressed, restore the simulation from the newest readable automatic checkpoint
+		if (input.Keyboard.getKeyDownNoRepeats(Keyboard.KEY_F10)) {
+			try {
+				Checkpoint checkpoint = autosaves.loadNewest();
+				Clock.setTotalTime(checkpoint.getTime());
+				setEntities(checkpoint.getEntities());
+				System.out.println("Restored automatic checkpoint from " + autosaves.getFile());
+			} catch (IOException e) {
+				System.err.println("Could not restore automatic checkpoint!");
+				e.printStackTrace();
+			}
+		}
+
+		// If the enter key is pressed, start a sweep of the most recent system in the background
+		if (input.Keyboard.getKeyDownNoRepeats(Keyboard.KEY_RETURN) && sweep == null)
+			startTest(newSweep -> MassSweep.printResults(newSweep.run()));
+
+		// If 'M' is pressed, ask for a tolerance and search for the edges of the stable mass range in the background
+		if (input.Keyboard.getKeyDownNoRepeats(Keyboard.KEY_M) && sweep == null) {
+			String tolerance = JOptionPane.showInputDialog("Tolerance", MassSweep.DEFAULT_TOLERANCE);
+			if (tolerance != null) {
+				try {
+					double value = Double.parseDouble(tolerance);
+					if (value > 0)
+						startTest(newSweep -> MassSweep.printResults(newSweep.search(value)));
+					else
+						JOptionPane.showMessageDialog(null, "Tolerance must be positive");
+				} catch (NumberFormatException e) {
+					JOptionPane.showMessageDialog(null, "Not a number");
+				}
+			}
 		}
-		// Current mass is successful if it lasts 1576800000 seconds (50 years)
-		if (Clock.getTotalTime() >= currentTestStart + 1576800000d) {
-			entities = XMLReader.loadMostRecent();
-			Clock.setTotalTime(currentTestStart);
-			System.out.println("Successful test on mass " + currentMassTest);
-			successfulTests.add(currentMassTest);
-			// Increase tested mass by 5%
-			currentMassTest *= 1.05f;
-			entities.get(0).setMass(currentMassTest);
-			// Finish after testing mass 1e40
-			if (currentMassTest > 1e40)
-				finishTest();
+
+		// If 'U' is pressed, ask how many times a second the physics thread should update, fewer leaving more time for big systems
+		if (input.Keyboard.getKeyDownNoRepeats(Keyboard.KEY_U)) {
+			String tickRate = JOptionPane.showInputDialog("Physics updates per second", physics.getTickRate());
+			if (tickRate != null) {
+				try {
+					int value = Integer.parseInt(tickRate);
+					if (value >= 1)
+						physics.setTickRate(value);
+					else
+						JOptionPane.showMessageDialog(null, "Updates per second must be at least 1");
+				} catch (NumberFormatException e) {
+					JOptionPane.showMessageDialog(null, "Not a number");
+				}
+			}
 		}
 
-		// Check if any entity has moved 50% closer or further from the sun
-		for (int i = 1; i < entities.size(); i++) {
-			float percentDifference = entities.get(i).getPosition2f().length() / originalEntities.get(i).getPosition2f().length();
-
-			if ((percentDifference < 0.5f || percentDifference > 1.5f) && entities.get(i).getPosition2f().length() >= 0.1f) {
-				entities = XMLReader.loadMostRecent();
-				Clock.setTotalTime(currentTestStart);
-				// Increase tested mass by 5%
-				currentMassTest *= 1.05f;
-				entities.get(0).setMass(currentMassTest);
-				// Finish after testing mass 1e40
-				if (currentMassTest > 1e40)
-					finishTest();
+		// If 'G' is pressed, ask what share of each physics update's real time to spend stepping
+		if (input.Keyboard.getKeyDownNoRepeats(Keyboard.KEY_G)) {
+			String share = JOptionPane.showInputDialog("Share of each update to spend stepping (0 to 1)", physics.getScheduler().getBudgetShare());
+			if (share != null) {
+				try {
+					double value = Double.parseDouble(share);
+					if (value > 0 && value <= 1)
+						physics.getScheduler().setBudgetShare(value);
+					else
+						JOptionPane.showMessageDialog(null, "Share must be above 0 and at most 1");
+				} catch (NumberFormatException e) {
+					JOptionPane.showMessageDialog(null, "Not a number");
+				}
 			}
 		}
+
+		// If 'C' is pressed, ask how much of each trial later tests should run before classifying it by its MEGNO
+		if (input.Keyboard.getKeyDownNoRepeats(Keyboard.KEY_C)) {
+			String fraction = JOptionPane.showInputDialog("Fraction of each trial to run before classifying by MEGNO (0 to run in full)", megnoFraction);
+			if (fraction != null) {
+				try {
+					double value = Double.parseDouble(fraction);
+					if (value >= 0 && value <= 1)
+						megnoFraction = value;
+					else
+						JOptionPane.showMessageDialog(null, "Fraction must be between 0 and 1");
+				} catch (NumberFormatException e) {
+					JOptionPane.showMessageDialog(null, "Not a number");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Start testing the sun masses of the most recently loaded system on a background thread
+	 *
+	 * @param test Runs the test with a sweep and prints the results
+	 */
+	private static void startTest(Consumer<MassSweep> test) {
+		MassSweep newSweep = new MassSweep(loadedState, Stepper::new);
+		newSweep.setMegnoFraction(megnoFraction);
+		sweep = newSweep;
+		System.out.println("Started");
+		Thread thread = new Thread(() -> {
+			try {
+				test.accept(newSweep);
+			} finally {
+				// Let another test start even if this one failed
+				sweep = null;
+			}
+		}, "Mass sweep");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Replace the entities in the simulation, starting them from the clock's current time
+	 *
+	 * @param entities The new entities, all sharing one body store
+	 */
+	private static void setEntities(List<Entity> entities) {
+		Simulation.entities = entities;
+		bodies = entities.get(0).getBodies();
+		loadedState = new SystemState(bodies);
+		// Nothing to interpolate from until the physics thread publishes the new bodies
+		previousBodies.copyFrom(bodies);
+		previousNanos = 0;
+		currentNanos = 0;
+		// The entities are handed over with the bodies, so no checkpoint mixes the old system with the new one
+		if (physics != null)
+			physics.load(bodies, Clock.getTotalTime(), new CheckpointWriter.EncodedEntities(entities));
 	}
 
 	/**
-	 * Called to stop a test a print the results
+	 * Record that an entity's name, type or rotation period has changed, so later checkpoints hold the change
 	 */
-	private static void finishTest() {
-		isTestRunning = false;
-		entities = XMLReader.loadMostRecent();
-		Clock.setMultiplier(86400);
+	public static void entitiesEdited() {
+		physics.setCheckpointEntities(new CheckpointWriter.EncodedEntities(entities));
+	}
 
-		// Calculate mean result
-		double mean = 0;
-		for (Double mass : successfulTests)
-			mean += mass;
-		mean /= successfulTests.size();
+	/**
+	 * Put every body back where it was when the system was loaded, keeping the clock's current time
+	 */
+	private static void resetSystem() {
+		loadedState.restore(bodies);
+		previousBodies.copyFrom(bodies);
+		previousNanos = 0;
+		currentNanos = 0;
+		physics.load(bodies, Clock.getTotalTime());
+	}
 
-		// Print results
-		System.out.println("Finished!");
-		System.out.println("Minimum: " + successfulTests.get(0));
-		System.out.println("Maximum: " + successfulTests.get(successfulTests.size() - 1));
-		System.out.println("Range: " + (successfulTests.get(successfulTests.size() - 1) - successfulTests.get(0)));
-		System.out.println("Max / Min: " + (successfulTests.get(successfulTests.size() - 1) / successfulTests.get(0)));
-		System.out.println("Mean: " + mean);
+	/**
+	 * Find how far between the previous and current physics states to draw the entities.
+	 * States are drawn one interval late, moving from the previous state to the current one over the time
+	 * between them, so the fraction is the time since the current state was due over that interval.
+	 *
+	 * @return The fraction of the way from the previous state to the current one, between 0 and 1
+	 */
+	private static float getInterpolation() {
+		long interval = currentNanos - previousNanos;
+		if (interval <= 0)
+			return 1;
+		return (float) Math.min(1, Math.max(0, (double) (System.nanoTime() - currentNanos) / interval));
+	}
+
+	/**
+	 * Apply a change to the bodies being simulated.
+	 * The change is queued for the physics thread, so the caller should also make it to the displayed bodies.
+	 *
+	 * @param edit The change, which is given the simulated body store
+	 */
+	public static void editBodies(Consumer<BodyStore> edit) {
+		if (physics != null)
+			physics.edit(edit);
+	}
+
+	/**
+	 * Get where an entity is drawn this frame, part way between the previous and current physics states
+	 *
+	 * @param entity The entity
+	 * @return The entity's drawn position in world space
+	 */
+	public static Vector3f getDrawnPosition(Entity entity) {
+		return entity.getPosition3f(previousBodies, interpolation);
 	}
 
 	public static List<Entity> getEntities() {
@@ -245,10 +475,16 @@ public class Simulation {
 	}
 
 	public static boolean isTestRunning() {
-		return isTestRunning;
+		return sweep != null;
 	}
 
-	public static double getCurrentMassTest() {
-		return currentMassTest;
+	/**
+	 * Get the progress of the running sweep
+	 *
+	 * @return The number of trials finished and the number in the sweep, as a String
+	 */
+	public static String getTestProgress() {
+		MassSweep sweep = Simulation.sweep;
+		return sweep == null ? "" : sweep.getTrialsDone() + " of " + sweep.getTrialCount();
 	}
 }
@@ -0,0 +1,77 @@
+package simulation;
+
+/**
+ * Accuracy of a gravity solver's accelerations compared to direct summation.
+ * Errors are relative to the size of each body's exact acceleration.
+ */
+public class SolverAccuracy {
+
+	/**
+	 * Number of bodies sampled
+	 */
+	private final int samples;
+	/**
+	 * Root mean square of the sampled relative errors
+	 */
+	private final double rmsError;
+	/**
+	 * Largest sampled relative error
+	 */
+	private final double maxError;
+
+	private SolverAccuracy(int samples, double rmsError, double maxError) {
+		this.samples = samples;
+		this.rmsError = rmsError;
+		this.maxError = maxError;
+	}
+
+	/**
+	 * Measure the accuracy of a solver against direct summation.
+	 * Direct summation is only done for an evenly spread sample of bodies, so this is affordable for large systems.
+	 * The solver's accelerations are left in the body store.
+	 *
+	 * @param solver The solver to measure
+	 * @param bodies The bodies to measure with
+	 * @param maxSamples Largest number of bodies to compare
+	 * @return The measured accuracy
+	 */
+	public static SolverAccuracy measure(GravitySolver solver, BodyStore bodies, int maxSamples) {
+		solver.computeAccelerations(bodies);
+		int stride = Math.max(1, bodies.size / Math.max(1, maxSamples));
+		double[] exact = new double[2];
+		double sumSquares = 0, max = 0;
+		int samples = 0;
+		for (int i = 0; i < bodies.size; i += stride) {
+			DirectSolver.computeAcceleration(bodies, i, exact);
+			double exactLength = Math.hypot(exact[0], exact[1]);
+			// Bodies feeling no pull at all have no meaningful relative error
+			if (exactLength == 0) continue;
+			double error = Math.hypot(bodies.accelerationX[i] - exact[0], bodies.accelerationY[i] - exact[1]) / exactLength;
+			sumSquares += error * error;
+			max = Math.max(max, error);
+			samples++;
+		}
+		return new SolverAccuracy(samples, samples > 0 ? Math.sqrt(sumSquares / samples) : 0, max);
+	}
+
+	public int getSamples() {
+		return samples;
+	}
+
+	public double getRmsError() {
+		return rmsError;
+	}
+
+	public double getMaxError() {
+		return maxError;
+	}
+
+	/**
+	 * Returns a string representation of the accuracy
+	 *
+	 * @return A string representation of the accuracy
+	 */
+	public String toString() {
+		return "rms relative error " + rmsError + ", max relative error " + maxError + " over " + samples + " bodies";
+	}
+}
@@ -0,0 +1,359 @@
+package simulation;
+
+import maths.Physics;
+
+/**
+ * Decides whether a mass trial has become unstable, and whether it is certain to become unstable before it ends.
+ * A trial is unstable once a body apart from the sun is less than half or more than one and a half times its
+ * starting distance from the origin, ignoring bodies within 0.1 AU of it.
+ * <p>
+ * To end unstable trials early, each body's two body orbit around the sun is worked out as the trial runs.
+ * If a bound orbit's aphelion or perihelion is clearly outside the band and the body will reach it within the trial,
+ * or an unbound orbit carries the body out of the band before the trial ends, the trial is unstable already.
+ * <p>
+ * The band is measured from the origin rather than the sun, and the sun drifts with the centre of mass,
+ * which moves in a straight line. Over each orbit a body passes the points straight out from the sun and straight in
+ * towards the origin, so once the drift carries the sun far enough, the body is certain to leave the band.
+ * The sun's wobble around the centre of mass is allowed for using the aphelions of the other bodies.
+ * <p>
+ * Total energy and angular momentum are tracked as well. Both are conserved, so a large drift in either means
+ * the integration has broken down, as happens when the bodies are flung apart, and the trial is counted as unstable.
+ */
+public class StabilityClassifier {
+
+	/**
+	 * Smallest and largest distance from the origin a body may reach, as a fraction of its starting distance
+	 */
+	private static final double INNER_LIMIT = 0.5, OUTER_LIMIT = 1.5;
+	/**
+	 * Distance from the origin in AU within which bodies are ignored
+	 */
+	private static final double NEAR_ORIGIN = 0.1;
+	/**
+	 * Fraction an orbit must be past the band by, to allow for the other bodies changing it before it gets there
+	 */
+	private static final double ORBIT_MARGIN = 0.02;
+	/**
+	 * Largest relative change in total energy or angular momentum before the trial is counted as unstable
+	 */
+	private static final double DRIFT_LIMIT = 0.1;
+	/**
+	 * Number of times spread across the rest of the trial at which to check where the centre of mass will be
+	 */
+	private static final int SAMPLES = 16;
+
+	/**
+	 * Starting distance of each body from the origin in AU
+	 */
+	private final double[] startDistance;
+	/**
+	 * Total energy in J and angular momentum around the origin in kg m^2/s at the start of the trial
+	 */
+	private double startEnergy, startMomentum;
+	/**
+	 * Position and velocity of a body relative to the sun, used to follow unbound orbits
+	 */
+	private final double[] x = new double[1], y = new double[1], vx = new double[1], vy = new double[1];
+	/**
+	 * Perihelion, aphelion and semi-latus rectum in AU, eccentricity, direction of perihelion from the sun in radians
+	 * and orbital period in seconds of each body's orbit around the sun, with an infinite period for unbound orbits
+	 */
+	private final double[] perihelion, aphelion, semiLatusRectum, eccentricity, perihelionAngle, period;
+	/**
+	 * Smallest and largest distance from the sun found by {@link #distanceRange}
+	 */
+	private final double[] range = new double[2];
+
+	/**
+	 * Create a classifier for trials of a system
+	 *
+	 * @param initial The system before any trial, whose positions set the band for each body
+	 */
+	public StabilityClassifier(BodyStore initial) {
+		startDistance = new double[initial.size];
+		perihelion = new double[initial.size];
+		aphelion = new double[initial.size];
+		semiLatusRectum = new double[initial.size];
+		eccentricity = new double[initial.size];
+		perihelionAngle = new double[initial.size];
+		period = new double[initial.size];
+		for (int i = 0; i < initial.size; i++)
+			startDistance[i] = Math.hypot(initial.positionX[i], initial.positionY[i]);
+	}
+
+	/**
+	 * Record the energy and angular momentum at the start of a trial
+	 *
+	 * @param bodies The bodies with the trial's sun mass
+	 */
+	public void start(BodyStore bodies) {
+		startEnergy = energy(bodies);
+		startMomentum = angularMomentum(bodies);
+	}
+
+	/**
+	 * Check if any body apart from the sun has left its band
+	 *
+	 * @param bodies The bodies part way through a trial
+	 * @return True if a body is outside its band, otherwise false
+	 */
+	public boolean hasLeftBand(BodyStore bodies) {
+		for (int i = 1; i < bodies.size; i++) {
+			double distance = Math.hypot(bodies.positionX[i], bodies.positionY[i]);
+			double ratio = distance / startDistance[i];
+			if ((ratio < INNER_LIMIT || ratio > OUTER_LIMIT) && distance >= NEAR_ORIGIN)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Check if the trial is certain to end up unstable, or the integration has broken down
+	 *
+	 * @param bodies The bodies part way through a trial
+	 * @param remaining Simulated time left in the trial in seconds
+	 * @return True if the trial can be counted as unstable now, otherwise false
+	 */
+	public boolean isDivergent(BodyStore bodies, double remaining) {
+		if (drift(energy(bodies), startEnergy) > DRIFT_LIMIT || drift(angularMomentum(bodies), startMomentum) > DRIFT_LIMIT)
+			return true;
+
+		double sunOffset = Math.hypot(bodies.positionX[0], bodies.positionY[0]);
+		boolean allBound = true;
+		for (int i = 1; i < bodies.size; i++) {
+			if (!findOrbit(bodies, i)) {
+				allBound = false;
+				if (unboundOrbitLeavesBand(bodies, i, sunOffset, remaining))
+					return true;
+			} else if (period[i] <= remaining) {
+				// The body reaches both perihelion and aphelion within one period
+				if (aphelion[i] - sunOffset > outerLimit(i))
+					return true;
+				// On its way in the body passes every distance down to perihelion, so it only escapes notice if the whole
+				// inner part of the band is within the ignored distance of the origin
+				if (perihelion[i] + sunOffset < innerLimit(i) && innerLimit(i) > NEAR_ORIGIN)
+					return true;
+			}
+		}
+		// The wobble can only be bounded while every orbit is bound
+		return allBound && driftLeavesBand(bodies, remaining);
+	}
+
+	/**
+	 * Check if the drift of the centre of mass carries the sun far enough from the origin
+	 * that a body is certain to leave its band before the trial ends
+	 *
+	 * @param bodies The body store
+	 * @param remaining Simulated time left in the trial in seconds
+	 * @return True if a body is certain to leave its band, otherwise false
+	 */
+	private boolean driftLeavesBand(BodyStore bodies, double remaining) {
+		// Centre of mass in AU and its velocity in AU/s, and the furthest the sun can be from it in AU
+		double totalMass = 0, massX = 0, massY = 0, momentumX = 0, momentumY = 0, wobble = 0;
+		for (int i = 0; i < bodies.size; i++) {
+			double m = bodies.mass[i];
+			totalMass += m;
+			massX += m * bodies.positionX[i];
+			massY += m * bodies.positionY[i];
+			momentumX += m * bodies.velocityX[i];
+			momentumY += m * bodies.velocityY[i];
+			if (i > 0)
+				wobble += m * aphelion[i];
+		}
+		double centreX = massX / totalMass, centreY = massY / totalMass;
+		double velocityX = momentumX / totalMass / Physics.METERS_PER_AU, velocityY = momentumY / totalMass / Physics.METERS_PER_AU;
+		double speed = Math.hypot(velocityX, velocityY);
+		wobble /= totalMass;
+
+		for (int i = 1; i < bodies.size; i++) {
+			// A whole orbit has to fit in the rest of the trial, starting any time up to the latest start
+			double latestStart = remaining - period[i];
+			if (latestStart < 0)
+				continue;
+			// How far the sun can be from where the centre of mass was at the start of an orbit, during that orbit
+			double slack = wobble + speed * period[i];
+			for (int sample = 0; sample < SAMPLES; sample++) {
+				double time = latestStart * sample / (SAMPLES - 1);
+				if (orbitLeavesBand(i, centreX + velocityX * time, centreY + velocityY * time, slack))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check if a bound body is certain to leave its band during one orbit.
+	 * Over the orbit the body passes the point straight out from the sun, away from the origin, and the point
+	 * straight in, towards it, and how far it is from the sun there follows from the orbit's shape and orientation.
+	 *
+	 * @param i Index of the body
+	 * @param centreX x position of the centre of mass at the start of the orbit in AU
+	 * @param centreY y position of the centre of mass at the start of the orbit in AU
+	 * @param slack Furthest the sun can be from that position during the orbit in AU
+	 * @return True if the body is certain to leave its band, otherwise false
+	 */
+	private boolean orbitLeavesBand(int i, double centreX, double centreY, double slack) {
+		double centreDistance = Math.hypot(centreX, centreY);
+		if (centreDistance <= slack)
+			return false;
+		// Seen from the origin, the sun is within this angle of the centre of mass
+		double spread = Math.asin(slack / centreDistance);
+		double outward = Math.atan2(centreY, centreX);
+
+		// Straight out from the sun the body is further from the origin than the sun by its distance from the sun
+		distanceRange(i, outward, spread);
+		if (centreDistance - slack + range[0] > outerLimit(i))
+			return true;
+		// Straight in from the sun the body crosses to the far side of the origin, as every orbit is wider than the offset
+		distanceRange(i, outward + Math.PI, spread);
+		return range[1] - (centreDistance - slack) < innerLimit(i) && range[0] - (centreDistance + slack) >= NEAR_ORIGIN;
+	}
+
+	/**
+	 * Find the smallest and largest distance from the sun of a body's orbit over a range of directions,
+	 * storing them in {@link #range}
+	 *
+	 * @param i Index of the body
+	 * @param direction Direction from the sun in the middle of the range in radians
+	 * @param spread Angle either side of the middle in radians
+	 */
+	private void distanceRange(int i, double direction, double spread) {
+		double first = distance(i, direction - spread), second = distance(i, direction + spread);
+		range[0] = Math.min(first, second);
+		range[1] = Math.max(first, second);
+		// Within the range the distance only turns around at perihelion and aphelion
+		double fromPerihelion = Math.abs(Math.IEEEremainder(direction - perihelionAngle[i], 2 * Math.PI));
+		if (fromPerihelion <= spread)
+			range[0] = perihelion[i];
+		if (Math.PI - fromPerihelion <= spread)
+			range[1] = aphelion[i];
+	}
+
+	/**
+	 * Find how far from the sun a body's orbit is in a direction
+	 *
+	 * @param i Index of the body
+	 * @param direction Direction from the sun in radians
+	 * @return The distance in AU
+	 */
+	private double distance(int i, double direction) {
+		return semiLatusRectum[i] / (1 + eccentricity[i] * Math.cos(direction - perihelionAngle[i]));
+	}
+
+	/**
+	 * Find the shape, orientation and period of a body's orbit around the sun
+	 *
+	 * @param bodies The body store
+	 * @param i Index of the body
+	 * @return True if the orbit is bound, otherwise false
+	 */
+	private boolean findOrbit(BodyStore bodies, int i) {
+		double gm = Physics.G * (bodies.mass[0] + bodies.mass[i]);
+		double rx = (bodies.positionX[i] - bodies.positionX[0]) * Physics.METERS_PER_AU;
+		double ry = (bodies.positionY[i] - bodies.positionY[0]) * Physics.METERS_PER_AU;
+		double wx = bodies.velocityX[i] - bodies.velocityX[0], wy = bodies.velocityY[i] - bodies.velocityY[0];
+		double r = Math.hypot(rx, ry), speedSquared = wx * wx + wy * wy;
+		double specificEnergy = speedSquared / 2 - gm / r;
+		if (specificEnergy >= 0) {
+			period[i] = Double.POSITIVE_INFINITY;
+			return false;
+		}
+
+		// Eccentricity vector, pointing at perihelion
+		double radialSpeed = rx * wx + ry * wy;
+		double ex = ((speedSquared - gm / r) * rx - radialSpeed * wx) / gm;
+		double ey = ((speedSquared - gm / r) * ry - radialSpeed * wy) / gm;
+		double semiMajorAxis = -gm / (2 * specificEnergy);
+		double h = rx * wy - ry * wx;
+		eccentricity[i] = Math.min(Math.hypot(ex, ey), 1);
+		perihelionAngle[i] = Math.atan2(ey, ex);
+		semiLatusRectum[i] = h * h / gm / Physics.METERS_PER_AU;
+		perihelion[i] = semiLatusRectum[i] / (1 + eccentricity[i]);
+		aphelion[i] = semiMajorAxis * (1 + eccentricity[i]) / Physics.METERS_PER_AU;
+		period[i] = 2 * Math.PI * Math.sqrt(semiMajorAxis * semiMajorAxis * semiMajorAxis / gm);
+		return true;
+	}
+
+	/**
+	 * Check if an unbound body is carried out of its band before the trial ends.
+	 * The orbit is followed to the end of the trial, as the body ends up further out than it has ever been.
+	 *
+	 * @param bodies The body store
+	 * @param i Index of the body
+	 * @param sunOffset Distance of the sun from the origin in AU
+	 * @param remaining Simulated time left in the trial in seconds
+	 * @return True if the body is certain to leave its band, otherwise false
+	 */
+	private boolean unboundOrbitLeavesBand(BodyStore bodies, int i, double sunOffset, double remaining) {
+		x[0] = (bodies.positionX[i] - bodies.positionX[0]) * Physics.METERS_PER_AU;
+		y[0] = (bodies.positionY[i] - bodies.positionY[0]) * Physics.METERS_PER_AU;
+		vx[0] = bodies.velocityX[i] - bodies.velocityX[0];
+		vy[0] = bodies.velocityY[i] - bodies.velocityY[0];
+		KeplerDrift.drift(Physics.G * (bodies.mass[0] + bodies.mass[i]), x, y, vx, vy, 0, remaining);
+		return Math.hypot(x[0], y[0]) / Physics.METERS_PER_AU - sunOffset > outerLimit(i);
+	}
+
+	/**
+	 * Get the distance from the origin a body's orbit must reach to be certain to leave the outside of its band
+	 *
+	 * @param i Index of the body
+	 * @return The distance in AU
+	 */
+	private double outerLimit(int i) {
+		// Bodies within the ignored distance of the origin are not noticed however far out of their band they are
+		return Math.max(OUTER_LIMIT * startDistance[i] * (1 + ORBIT_MARGIN), NEAR_ORIGIN);
+	}
+
+	/**
+	 * Get the distance from the origin a body's orbit must reach to be certain to leave the inside of its band
+	 *
+	 * @param i Index of the body
+	 * @return The distance in AU
+	 */
+	private double innerLimit(int i) {
+		return INNER_LIMIT * startDistance[i] * (1 - ORBIT_MARGIN);
+	}
+
+	/**
+	 * Find the relative change in a conserved quantity
+	 *
+	 * @param value The current value
+	 * @param start The value at the start of the trial
+	 * @return The size of the change over the size of the starting value, 0 if the starting value is 0
+	 */
+	private static double drift(double value, double start) {
+		return start == 0 ? 0 : Math.abs((value - start) / start);
+	}
+
+	/**
+	 * Find the total kinetic and potential energy of the bodies
+	 *
+	 * @param bodies The body store
+	 * @return The total energy in J
+	 */
+	static double energy(BodyStore bodies) {
+		double kinetic = 0, potential = 0;
+		for (int i = 0; i < bodies.size; i++) {
+			kinetic += bodies.mass[i] * (bodies.velocityX[i] * bodies.velocityX[i] + bodies.velocityY[i] * bodies.velocityY[i]) / 2;
+			for (int j = i + 1; j < bodies.size; j++) {
+				double dx = (bodies.positionX[j] - bodies.positionX[i]) * Physics.METERS_PER_AU;
+				double dy = (bodies.positionY[j] - bodies.positionY[i]) * Physics.METERS_PER_AU;
+				potential -= Physics.G * bodies.mass[i] * bodies.mass[j] / Math.sqrt(dx * dx + dy * dy);
+			}
+		}
+		return kinetic + potential;
+	}
+
+	/**
+	 * Find the total angular momentum of the bodies around the origin
+	 *
+	 * @param bodies The body store
+	 * @return The angular momentum in kg m^2/s, anticlockwise positive
+	 */
+	static double angularMomentum(BodyStore bodies) {
+		double momentum = 0;
+		for (int i = 0; i < bodies.size; i++)
+			momentum += bodies.mass[i] * (bodies.positionX[i] * bodies.velocityY[i] - bodies.positionY[i] * bodies.velocityX[i]);
+		return momentum * Physics.METERS_PER_AU;
+	}
+}
@@ -0,0 +1,104 @@
+package simulation;
+
+/**
+ * Fits the steps of each physics tick into a share of the tick's real time.
+ * The cost of a step is measured as it runs, and each tick is allowed as many steps as the budget covers.
+ * When the dynamics need more, the rest of the tick's simulated time is dropped, so a large system runs slower
+ * than requested instead of each tick overrunning the next, while a small system gets every step it needs.
+ * Integrators that choose their own steps are held to the same budget, counted in their own steps.
+ */
+public class StepScheduler {
+
+	/**
+	 * Share of each tick's real time to spend stepping when none is given.
+	 * Leaves room for publishing states and for other threads.
+	 */
+	public static final double DEFAULT_BUDGET_SHARE = 0.75;
+	/**
+	 * Weight given to the newest measurement of the step cost
+	 */
+	private static final double SMOOTHING = 0.2;
+
+	/**
+	 * Chooses the length of each step
+	 */
+	private final TimestepController timestepController;
+	/**
+	 * Share of each tick's real time to spend stepping, volatile so it can be changed from another thread
+	 */
+	private volatile double budgetShare;
+	/**
+	 * Average real time a step takes in nanoseconds, 0 until the first step has been measured
+	 */
+	private double stepCost;
+
+	/**
+	 * Create a step scheduler using the default budget share
+	 *
+	 * @param timestepController Chooses the length of each step
+	 */
+	public StepScheduler(TimestepController timestepController) {
+		this(timestepController, DEFAULT_BUDGET_SHARE);
+	}
+
+	/**
+	 * Create a step scheduler
+	 *
+	 * @param timestepController Chooses the length of each step
+	 * @param budgetShare Share of each tick's real time to spend stepping, between 0 and 1
+	 */
+	public StepScheduler(TimestepController timestepController, double budgetShare) {
+		this.timestepController = timestepController;
+		setBudgetShare(budgetShare);
+	}
+
+	/**
+	 * Advance the bodies by up to an amount of simulated time, taking as many steps as fit in the budget.
+	 * The time actually covered is given by {@link #getAdvanced()}.
+	 *
+	 * @param stepper The stepper to advance the bodies with
+	 * @param bodies The bodies to advance
+	 * @param time Amount of simulated time requested in seconds
+	 * @param tickNanos Real time of the tick in nanoseconds
+	 * @return The number of steps taken
+	 */
+	public int advance(Stepper stepper, BodyStore bodies, double time, long tickNanos) {
+		// Take a single step to measure when the cost is not known yet
+		int stepLimit = 1;
+		if (stepCost > 0)
+			stepLimit = (int) Math.max(1, Math.min(Integer.MAX_VALUE, tickNanos * budgetShare / stepCost));
+
+		long start = System.nanoTime();
+		int steps = timestepController.advance(stepper, bodies, time, stepLimit);
+		if (steps > 0) {
+			double cost = (double) (System.nanoTime() - start) / steps;
+			stepCost = stepCost > 0 ? stepCost + SMOOTHING * (cost - stepCost) : cost;
+		}
+		return steps;
+	}
+
+	/**
+	 * Forget the measured step cost, for example after the number of bodies has changed
+	 */
+	public void reset() {
+		stepCost = 0;
+	}
+
+	public double getAdvanced() {
+		return timestepController.getAdvanced();
+	}
+
+	public double getStepCost() {
+		return stepCost;
+	}
+
+	public double getBudgetShare() {
+		return budgetShare;
+	}
+
+	public void setBudgetShare(double budgetShare) {
+		if (budgetShare <= 0 || budgetShare > 1)
+			throw new IllegalArgumentException("Budget share must be between 0 and 1: " + budgetShare);
+		this.budgetShare = budgetShare;
+	}
+}
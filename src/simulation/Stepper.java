@@ -0,0 +1,75 @@
+package simulation;
+
+/**
+ * Advances a body store using a gravity solver and an integrator.
+ * Every acceleration is calculated from one snapshot of the positions before any body is moved,
+ * so the result does not depend on the order of the bodies.
+ */
+public class Stepper {
+
+	/**
+	 * The solver used to calculate accelerations.
+	 * Volatile so it can be swapped from another thread, taking effect from the next step.
+	 */
+	private volatile GravitySolver solver;
+	/**
+	 * The integrator used to move the bodies, volatile for the same reason
+	 */
+	private volatile Integrator integrator;
+
+	/**
+	 * Create a stepper using direct summation and the leapfrog integrator
+	 */
+	public Stepper() {
+		this(new DirectSolver(), new LeapfrogIntegrator());
+	}
+
+	/**
+	 * Create a stepper
+	 *
+	 * @param solver The solver to calculate accelerations with
+	 * @param integrator The integrator to move the bodies with
+	 */
+	public Stepper(GravitySolver solver, Integrator integrator) {
+		this.solver = solver;
+		this.integrator = integrator;
+	}
+
+	/**
+	 * Advance every body
+	 *
+	 * @param bodies The bodies to advance
+	 * @param delta Time to advance by in seconds
+	 */
+	public void step(BodyStore bodies, double delta) {
+		integrator.step(bodies, solver, delta);
+	}
+
+	/**
+	 * Advance every body by up to an amount of time, for integrators that choose their own steps
+	 *
+	 * @param bodies The bodies to advance
+	 * @param delta Most time to advance by in seconds
+	 * @param stepLimit Most of the integrator's own steps to take
+	 * @return The time advanced in seconds, see {@link Integrator#step(BodyStore, GravitySolver, double, int)}
+	 */
+	public double step(BodyStore bodies, double delta, int stepLimit) {
+		return integrator.step(bodies, solver, delta, stepLimit);
+	}
+
+	public GravitySolver getSolver() {
+		return solver;
+	}
+
+	public void setSolver(GravitySolver solver) {
+		this.solver = solver;
+	}
+
+	public Integrator getIntegrator() {
+		return integrator;
+	}
+
+	public void setIntegrator(Integrator integrator) {
+		this.integrator = integrator;
+	}
+}
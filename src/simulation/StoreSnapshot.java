@@ -0,0 +1,72 @@
+package simulation;
+
+/**
+ * Copy of the positions, velocities and masses in a body store, used by integrators that keep their own state
+ * between steps to notice when the store has been changed by something else, such as a body being edited.
+ */
+class StoreSnapshot {
+
+	/**
+	 * The body store the copy was taken from
+	 */
+	private BodyStore bodies;
+	/**
+	 * Number of bodies copied
+	 */
+	private int size;
+	/**
+	 * Copied positions, velocities and masses
+	 */
+	private double[] positionX = new double[0], positionY = new double[0];
+	private double[] velocityX = new double[0], velocityY = new double[0];
+	private double[] mass = new double[0];
+
+	/**
+	 * Copy the current state of a body store
+	 *
+	 * @param bodies The body store
+	 */
+	void record(BodyStore bodies) {
+		this.bodies = bodies;
+		size = bodies.size;
+		if (positionX.length < size) {
+			positionX = new double[size];
+			positionY = new double[size];
+			velocityX = new double[size];
+			velocityY = new double[size];
+			mass = new double[size];
+		}
+		System.arraycopy(bodies.positionX, 0, positionX, 0, size);
+		System.arraycopy(bodies.positionY, 0, positionY, 0, size);
+		System.arraycopy(bodies.velocityX, 0, velocityX, 0, size);
+		System.arraycopy(bodies.velocityY, 0, velocityY, 0, size);
+		System.arraycopy(bodies.mass, 0, mass, 0, size);
+	}
+
+	/**
+	 * Check if a body store is the one last recorded and still holds the same values
+	 *
+	 * @param bodies The body store
+	 * @return True if the store is the same one with the same values, otherwise false
+	 */
+	boolean matches(BodyStore bodies) {
+		return bodies == this.bodies && bodies.size == size
+				&& equal(bodies.positionX, positionX) && equal(bodies.positionY, positionY)
+				&& equal(bodies.velocityX, velocityX) && equal(bodies.velocityY, velocityY)
+				&& equal(bodies.mass, mass);
+	}
+
+	/**
+	 * Check if the first size values of two arrays are the same
+	 *
+	 * @param values Values in the body store
+	 * @param copy Values recorded
+	 * @return True if they are all the same, otherwise false
+	 */
+	private boolean equal(double[] values, double[] copy) {
+		for (int i = 0; i < size; i++)
+			if (values[i] != copy[i])
+				return false;
+		return true;
+	}
+}
@@ -0,0 +1,70 @@
+package simulation;
+
+import java.util.Arrays;
+
+/**
+ * Unchanging copy of the positions, velocities and masses of every body in a system.
+ * Taken once when a system is loaded, and copied back into a body store with a bulk array copy
+ * whenever the system needs to be reset, rather than reading the system file again.
+ */
+public final class SystemState {
+
+	/**
+	 * Number of bodies in the system
+	 */
+	final int size;
+	/**
+	 * Position of each body in AU
+	 */
+	final double[] positionX, positionY;
+	/**
+	 * Velocity of each body in meters per second
+	 */
+	final double[] velocityX, velocityY;
+	/**
+	 * Mass of each body in kg
+	 */
+	final double[] mass;
+
+	/**
+	 * Take a copy of the current state of a body store
+	 *
+	 * @param bodies The body store to copy
+	 */
+	public SystemState(BodyStore bodies) {
+		size = bodies.size;
+		positionX = Arrays.copyOf(bodies.positionX, size);
+		positionY = Arrays.copyOf(bodies.positionY, size);
+		velocityX = Arrays.copyOf(bodies.velocityX, size);
+		velocityY = Arrays.copyOf(bodies.velocityY, size);
+		mass = Arrays.copyOf(bodies.mass, size);
+	}
+
+	/**
+	 * Replace the contents of a body store with this state
+	 *
+	 * @param bodies The body store to restore into
+	 */
+	public void restore(BodyStore bodies) {
+		bodies.copyFrom(this);
+	}
+
+	/**
+	 * Create a new body store holding this state
+	 *
+	 * @return The new body store
+	 */
+	public BodyStore toBodyStore() {
+		BodyStore bodies = new BodyStore(size);
+		bodies.copyFrom(this);
+		return bodies;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public double getMass(int index) {
+		return mass[index];
+	}
+}
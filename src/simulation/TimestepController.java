@@ -0,0 +1,288 @@
+package simulation;
+
+import maths.Physics;
+
+import java.util.Locale;
+
+/**
+ * Chooses step lengths from the dynamics of the system rather than splitting time into a fixed number of steps.
+ * Each step is a fraction eta of the shortest timescale found among the bodies, using two estimates:
+ * <ul>
+ *     <li>the orbital timescale sqrt(r^3 / GM) of each body around the most massive body</li>
+ *     <li>|a| / |da/dt| for each body, with da/dt taken from the change in acceleration over the last step,
+ *     which shrinks the step during close encounters between any two bodies</li>
+ * </ul>
+ * Steps can grow to at most twice the length of the previous step, so a single quiet step cannot jump past an encounter.
+ */
+public class TimestepController {
+
+	/**
+	 * Fraction of the shortest timescale to step by when none is given.
+	 * Around 600 steps per orbit for a body on a circular orbit.
+	 */
+	public static final double DEFAULT_ETA = 0.01;
+	/**
+	 * Most steps to take in one call to advance when none is given
+	 */
+	public static final int DEFAULT_MAX_STEPS = 100000;
+	/**
+	 * Largest factor a step can be longer than the one before it
+	 */
+	private static final double MAX_GROWTH = 2;
+
+	/**
+	 * Fraction of the shortest timescale to step by
+	 */
+	private double eta;
+	/**
+	 * Most steps to take in one call to advance.
+	 * If the dynamics need more, steps are lengthened to fit and accuracy is lost rather than time.
+	 */
+	private int maxSteps;
+
+	/**
+	 * Simulated time covered by the last call to advance in seconds
+	 */
+	private double advanced;
+
+	/**
+	 * The body store the previous accelerations belong to
+	 */
+	private BodyStore previousBodies;
+	/**
+	 * Accelerations at the start of the previous step
+	 */
+	private double[] previousAccelerationX = new double[0], previousAccelerationY = new double[0];
+	/**
+	 * Length of the previous step, 0 if its accelerations at the start and end are not both known
+	 */
+	private double previousDelta;
+	/**
+	 * Length chosen for the previous step before it was cut short to land on the requested time, 0 if none
+	 */
+	private double previousChoice;
+
+	/**
+	 * Create a timestep controller with the default eta and step limit
+	 */
+	public TimestepController() {
+		this(DEFAULT_ETA, DEFAULT_MAX_STEPS);
+	}
+
+	/**
+	 * Create a timestep controller
+	 *
+	 * @param eta Fraction of the shortest timescale to step by, smaller is more accurate but slower
+	 * @param maxSteps Most steps to take in one call to advance
+	 */
+	public TimestepController(double eta, int maxSteps) {
+		setEta(eta);
+		setMaxSteps(maxSteps);
+	}
+
+	/**
+	 * Advance the bodies by an amount of simulated time, taking as many steps as the dynamics need
+	 *
+	 * @param stepper The stepper to advance the bodies with
+	 * @param bodies The bodies to advance
+	 * @param time Amount of time to advance by in seconds
+	 * @return The number of steps taken
+	 */
+	public int advance(Stepper stepper, BodyStore bodies, double time) {
+		return advance(stepper, bodies, time, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Advance the bodies by an amount of simulated time, stopping early if the dynamics need more steps than allowed.
+	 * The time left over is not simulated, and {@link #getAdvanced()} returns the time that was.
+	 * Integrators that control their own timestep are given the whole time and the step limit in one call.
+	 *
+	 * @param stepper The stepper to advance the bodies with
+	 * @param bodies The bodies to advance
+	 * @param time Amount of time to advance by in seconds
+	 * @param stepLimit Most steps to take
+	 * @return The number of steps taken
+	 */
+	public int advance(Stepper stepper, BodyStore bodies, double time, int stepLimit) {
+		advanced = 0;
+		if (time <= 0 || bodies.size == 0)
+			return 0;
+		Integrator integrator = stepper.getIntegrator();
+		if (integrator.controlsTimestep()) {
+			advanced = stepper.step(bodies, time, stepLimit);
+			return integrator.getStepsTaken();
+		}
+		if (bodies != previousBodies || bodies.size != previousAccelerationX.length)
+			reset(bodies);
+
+		double minimum = time / maxSteps;
+		double remaining = time;
+		int steps = 0;
+		while (remaining > 0 && steps < stepLimit) {
+			double delta = Math.max(minimum, chooseDelta(bodies, stepper.getIntegrator().timestepScale()));
+			previousChoice = delta;
+			// Take the rest in one step rather than leaving a sliver for the next
+			if (delta >= remaining || remaining - delta < minimum)
+				delta = remaining;
+			// The accelerations at the start of the step are compared with those at the end to estimate their rate of change
+			boolean startKnown = remember(bodies);
+			stepper.step(bodies, delta);
+			previousDelta = startKnown && bodies.hasCurrentAccelerations() ? delta : 0;
+			remaining -= delta;
+			steps++;
+		}
+		advanced = time - remaining;
+		return steps;
+	}
+
+	/**
+	 * Forget the accelerations from the previous step, for example after bodies have been edited
+	 *
+	 * @param bodies The bodies that will be advanced next
+	 */
+	public void reset(BodyStore bodies) {
+		previousBodies = bodies;
+		previousAccelerationX = new double[bodies.size];
+		previousAccelerationY = new double[bodies.size];
+		previousDelta = 0;
+		previousChoice = 0;
+	}
+
+	/**
+	 * Choose the length of the next step
+	 *
+	 * @param bodies The bodies about to be stepped
+	 * @param scale Factor to lengthen the step by for the integrator in use
+	 * @return The length of the next step in seconds, infinite if nothing limits it
+	 */
+	private double chooseDelta(BodyStore bodies, double scale) {
+		double timescale = Math.min(orbitalTimescale(bodies), accelerationTimescale(bodies));
+		double delta = eta * scale * timescale;
+		if (previousChoice > 0)
+			delta = Math.min(delta, previousChoice * MAX_GROWTH);
+		return delta;
+	}
+
+	/**
+	 * Find the shortest orbital timescale, sqrt(r^3 / GM), of any body around the most massive body
+	 *
+	 * @param bodies The body store
+	 * @return The shortest orbital timescale in seconds
+	 */
+	static double orbitalTimescale(BodyStore bodies) {
+		int primary = 0;
+		for (int i = 1; i < bodies.size; i++)
+			if (bodies.mass[i] > bodies.mass[primary])
+				primary = i;
+
+		double shortest = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < bodies.size; i++) {
+			if (i == primary) continue;
+			double dx = (bodies.positionX[i] - bodies.positionX[primary]) * Physics.METERS_PER_AU;
+			double dy = (bodies.positionY[i] - bodies.positionY[primary]) * Physics.METERS_PER_AU;
+			double distanceSquared = dx * dx + dy * dy;
+			double gm = Physics.G * (bodies.mass[primary] + bodies.mass[i]);
+			if (gm > 0)
+				shortest = Math.min(shortest, Math.sqrt(distanceSquared * Math.sqrt(distanceSquared) / gm));
+		}
+		return shortest;
+	}
+
+	/**
+	 * Find the shortest timescale |a| / |da/dt| of any body, using the change in acceleration over the previous step
+	 *
+	 * @param bodies The body store
+	 * @return The shortest timescale in seconds, infinite if the previous step gave no change in acceleration to compare
+	 */
+	private double accelerationTimescale(BodyStore bodies) {
+		if (previousDelta == 0 || !bodies.hasCurrentAccelerations())
+			return Double.POSITIVE_INFINITY;
+		// Compare squared lengths to avoid a square root per body
+		double shortestSquared = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < bodies.size; i++) {
+			double ax = bodies.accelerationX[i], ay = bodies.accelerationY[i];
+			double jx = ax - previousAccelerationX[i], jy = ay - previousAccelerationY[i];
+			double changeSquared = jx * jx + jy * jy;
+			if (changeSquared > 0)
+				shortestSquared = Math.min(shortestSquared, (ax * ax + ay * ay) / changeSquared);
+		}
+		return Math.sqrt(shortestSquared) * previousDelta;
+	}
+
+	/**
+	 * Remember the accelerations at the start of a step, so they can be compared with those at the end
+	 *
+	 * @param bodies The body store about to be stepped
+	 * @return True if the accelerations were current for the bodies' positions, false if there were none to remember
+	 */
+	private boolean remember(BodyStore bodies) {
+		if (!bodies.hasCurrentAccelerations())
+			return false;
+		System.arraycopy(bodies.accelerationX, 0, previousAccelerationX, 0, bodies.size);
+		System.arraycopy(bodies.accelerationY, 0, previousAccelerationY, 0, bodies.size);
+		return true;
+	}
+
+	/**
+	 * Check that a close encounter between two planets shortens the steps, as the orbital timescale around the sun
+	 * alone cannot see it. Prints the step chosen with two Jupiter mass planets 0.01 AU apart and with them far apart,
+	 * and exits with an error if the encounter does not shorten the step at least tenfold.
+	 *
+	 * @param args Not used
+	 */
+	public static void main(String[] args) {
+		double close = chooseFirstStep(0.01), apart = chooseFirstStep(1);
+		System.out.println(String.format(Locale.ROOT, "Step with planets 0.01 AU apart %.4g s, 1 AU apart %.4g s", close, apart));
+		if (close * 10 > apart) {
+			System.err.println("A close encounter did not shorten the step");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Find the step length chosen for a sun with two Jupiter mass planets orbiting each other at 1 AU from the sun,
+	 * once two short steps have given the change in acceleration
+	 *
+	 * @param separation Distance between the planets in AU
+	 * @return The step length in seconds
+	 */
+	private static double chooseFirstStep(double separation) {
+		double sun = 1.989e30, planet = 1.898e27;
+		double orbit = Math.sqrt(Physics.G * sun / Physics.METERS_PER_AU);
+		double around = Math.sqrt(Physics.G * planet / (separation * Physics.METERS_PER_AU));
+		BodyStore bodies = new BodyStore(3);
+		bodies.add(0, 0, 0, 0, sun);
+		bodies.add(1, 0, 0, orbit, planet);
+		bodies.add(1 + separation, 0, 0, orbit + around, planet);
+		Stepper stepper = new Stepper(new DirectSolver(), new LeapfrogIntegrator());
+		TimestepController controller = new TimestepController();
+		controller.advance(stepper, bodies, 60);
+		controller.advance(stepper, bodies, 60);
+		controller.advance(stepper, bodies, 31536000, 1);
+		return controller.getAdvanced();
+	}
+
+	public double getAdvanced() {
+		return advanced;
+	}
+
+	public double getEta() {
+		return eta;
+	}
+
+	public void setEta(double eta) {
+		if (eta <= 0)
+			throw new IllegalArgumentException("Eta must be positive: " + eta);
+		this.eta = eta;
+	}
+
+	public int getMaxSteps() {
+		return maxSteps;
+	}
+
+	public void setMaxSteps(int maxSteps) {
+		if (maxSteps < 1)
+			throw new IllegalArgumentException("Step limit must be at least 1: " + maxSteps);
+		this.maxSteps = maxSteps;
+	}
+}
@@ -0,0 +1,159 @@
+package simulation;
+
+import maths.Physics;
+
+/**
+ * Wisdom-Holman symplectic map in democratic heliocentric coordinates, for systems dominated by one central body.
+ * The motion is split into each body's Kepler orbit around the central body, which is followed exactly,
+ * the pull of the other orbiting bodies on each other, and the drift of the central body around the centre of mass.
+ * Only the small pulls between orbiting bodies are approximated, so steps can be a sizeable fraction
+ * of the shortest orbital period.
+ * <p>
+ * The most massive body is taken as the central body. Positions are heliocentric, velocities barycentric,
+ * and the centre of mass moves in a straight line. The pulls between orbiting bodies come from the gravity solver,
+ * run on a separate store holding only the orbiting bodies.
+ */
+public class WisdomHolmanIntegrator implements Integrator {
+
+	/**
+	 * How many times longer steps can be than the timestep controller would choose for a general integrator.
+	 * Gives around 30 steps per orbit of the innermost body.
+	 */
+	private static final double TIMESTEP_SCALE = 20;
+
+	/**
+	 * The orbiting bodies at their heliocentric positions, used to calculate the pulls between them
+	 */
+	private BodyStore orbiting = new BodyStore();
+	/**
+	 * Heliocentric position in meters and barycentric velocity of each orbiting body
+	 */
+	private double[] x = new double[0], y = new double[0], vx = new double[0], vy = new double[0];
+	/**
+	 * Index in the body store of each orbiting body
+	 */
+	private int[] indices = new int[0];
+
+	@Override
+	public void step(BodyStore bodies, GravitySolver solver, double delta) {
+		if (bodies.size < 2) {
+			bodies.drift(delta);
+			return;
+		}
+
+		int central = 0;
+		for (int i = 1; i < bodies.size; i++)
+			if (bodies.mass[i] > bodies.mass[central])
+				central = i;
+		int count = bodies.size - 1;
+		if (orbiting.size != count) {
+			orbiting = new BodyStore(count);
+			for (int n = 0; n < count; n++)
+				orbiting.add(0, 0, 0, 0, 0);
+			x = new double[count];
+			y = new double[count];
+			vx = new double[count];
+			vy = new double[count];
+			indices = new int[count];
+		}
+
+		// Find the centre of mass and its velocity
+		double totalMass = 0, massX = 0, massY = 0, momentumX = 0, momentumY = 0;
+		for (int i = 0; i < bodies.size; i++) {
+			double m = bodies.mass[i];
+			totalMass += m;
+			massX += m * bodies.positionX[i];
+			massY += m * bodies.positionY[i];
+			momentumX += m * bodies.velocityX[i];
+			momentumY += m * bodies.velocityY[i];
+		}
+		double centreX = massX / totalMass * Physics.METERS_PER_AU, centreY = massY / totalMass * Physics.METERS_PER_AU;
+		double centreVX = momentumX / totalMass, centreVY = momentumY / totalMass;
+
+		// Convert to democratic heliocentric coordinates
+		double centralMass = bodies.mass[central];
+		double centralX = bodies.positionX[central] * Physics.METERS_PER_AU;
+		double centralY = bodies.positionY[central] * Physics.METERS_PER_AU;
+		for (int i = 0, n = 0; i < bodies.size; i++) {
+			if (i == central) continue;
+			indices[n] = i;
+			x[n] = bodies.positionX[i] * Physics.METERS_PER_AU - centralX;
+			y[n] = bodies.positionY[i] * Physics.METERS_PER_AU - centralY;
+			vx[n] = bodies.velocityX[i] - centreVX;
+			vy[n] = bodies.velocityY[i] - centreVY;
+			orbiting.setMass(n, bodies.mass[i]);
+			n++;
+		}
+
+		double gm = Physics.G * centralMass;
+		interact(solver, count, delta / 2);
+		jump(count, centralMass, delta / 2);
+		for (int n = 0; n < count; n++)
+			KeplerDrift.drift(gm, x, y, vx, vy, n, delta);
+		jump(count, centralMass, delta / 2);
+		interact(solver, count, delta / 2);
+
+		// Convert back, moving the centre of mass in a straight line
+		centreX += centreVX * delta;
+		centreY += centreVY * delta;
+		double weightedX = 0, weightedY = 0, weightedVX = 0, weightedVY = 0;
+		for (int n = 0; n < count; n++) {
+			double m = orbiting.mass[n];
+			weightedX += m * x[n];
+			weightedY += m * y[n];
+			weightedVX += m * vx[n];
+			weightedVY += m * vy[n];
+		}
+		centralX = centreX - weightedX / totalMass;
+		centralY = centreY - weightedY / totalMass;
+		bodies.setPosition(central, centralX / Physics.METERS_PER_AU, centralY / Physics.METERS_PER_AU);
+		bodies.setVelocity(central, centreVX - weightedVX / centralMass, centreVY - weightedVY / centralMass);
+		for (int n = 0; n < count; n++) {
+			int i = indices[n];
+			bodies.setPosition(i, (x[n] + centralX) / Physics.METERS_PER_AU, (y[n] + centralY) / Physics.METERS_PER_AU);
+			bodies.setVelocity(i, vx[n] + centreVX, vy[n] + centreVY);
+		}
+	}
+
+	@Override
+	public double timestepScale() {
+		return TIMESTEP_SCALE;
+	}
+
+	/**
+	 * Change the velocities of the orbiting bodies by their pulls on each other
+	 *
+	 * @param solver The solver to calculate the pulls with
+	 * @param count Number of orbiting bodies
+	 * @param delta Time to apply the pulls for in seconds
+	 */
+	private void interact(GravitySolver solver, int count, double delta) {
+		for (int n = 0; n < count; n++)
+			orbiting.setPosition(n, x[n] / Physics.METERS_PER_AU, y[n] / Physics.METERS_PER_AU);
+		orbiting.computeAccelerations(solver);
+		for (int n = 0; n < count; n++) {
+			vx[n] += orbiting.accelerationX[n] * delta;
+			vy[n] += orbiting.accelerationY[n] * delta;
+		}
+	}
+
+	/**
+	 * Move the orbiting bodies by the velocity the central body has around the centre of mass
+	 *
+	 * @param count Number of orbiting bodies
+	 * @param centralMass Mass of the central body in kg
+	 * @param delta Time to move for in seconds
+	 */
+	private void jump(int count, double centralMass, double delta) {
+		double momentumX = 0, momentumY = 0;
+		for (int n = 0; n < count; n++) {
+			momentumX += orbiting.mass[n] * vx[n];
+			momentumY += orbiting.mass[n] * vy[n];
+		}
+		double shiftX = momentumX / centralMass * delta, shiftY = momentumY / centralMass * delta;
+		for (int n = 0; n < count; n++) {
+			x[n] += shiftX;
+			y[n] += shiftY;
+		}
+	}
+}
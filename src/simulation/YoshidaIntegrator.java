@@ -0,0 +1,30 @@
+package simulation;
+
+/**
+ * Yoshida's fourth order symplectic integrator.
+ * Takes three leapfrog steps of weighted lengths, the middle one backwards in time,
+ * so that the second and third order errors cancel. Needs three acceleration calculations per step.
+ */
+public class YoshidaIntegrator implements Integrator {
+
+	/**
+	 * Weight of the first and last leapfrog steps, 1 / (2 - 2^(1/3))
+	 */
+	private static final double OUTER_WEIGHT = 1 / (2 - Math.cbrt(2));
+	/**
+	 * Weight of the middle leapfrog step, -2^(1/3) / (2 - 2^(1/3))
+	 */
+	private static final double INNER_WEIGHT = -Math.cbrt(2) / (2 - Math.cbrt(2));
+
+	/**
+	 * The leapfrog integrator to take the weighted steps with
+	 */
+	private final LeapfrogIntegrator leapfrog = new LeapfrogIntegrator();
+
+	@Override
+	public void step(BodyStore bodies, GravitySolver solver, double delta) {
+		leapfrog.step(bodies, solver, delta * OUTER_WEIGHT);
+		leapfrog.step(bodies, solver, delta * INNER_WEIGHT);
+		leapfrog.step(bodies, solver, delta * OUTER_WEIGHT);
+	}
+}
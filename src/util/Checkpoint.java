@@ -0,0 +1,294 @@
+package util;
+
+import entities.Entity;
+import entities.EntityType;
+import org.lwjgl.util.vector.Vector3f;
+import simulation.BodyStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Saves and restores a running simulation in a binary file, read through a memory mapped buffer and written
+ * with bulk channel writes so large systems move at the speed of the disk. All values are little endian. The file holds:
+ * <ul>
+ *     <li>a header: the magic number {@link #MAGIC}, the format version, the number of bodies as ints,
+ *     then the simulated time in seconds as a double</li>
+ *     <li>columns of doubles holding every body's x position, y position, x velocity, y velocity and mass in turn,
+ *     as written by {@link BodyStore#write(ByteBuffer)}</li>
+ *     <li>a column of ints holding every body's rotation period</li>
+ *     <li>a column of bytes holding every body's type, its position in {@link EntityType}</li>
+ *     <li>a name table holding every body's name then its model's name,
+ *     each as an int byte count followed by UTF-8 bytes</li>
+ * </ul>
+ */
+public class Checkpoint {
+
+	/**
+	 * First four bytes of every checkpoint, "NBCK" in ASCII
+	 */
+	public static final int MAGIC = 0x4B43424E;
+	/**
+	 * Version of the format written, increased whenever the layout changes
+	 */
+	public static final int VERSION = 1;
+	/**
+	 * Size of the header in bytes, a multiple of 8 so the columns of doubles are aligned
+	 */
+	private static final int HEADER_SIZE = 24;
+	/**
+	 * Fewest bytes each body takes up after the header: its five doubles, rotation period and type,
+	 * and the lengths of its name and its model's name
+	 */
+	private static final int BYTES_PER_BODY = 5 * Double.BYTES + Integer.BYTES + 1 + 2 * Integer.BYTES;
+
+	/**
+	 * The restored entities, all sharing one body store
+	 */
+	private final List<Entity> entities;
+	/**
+	 * The simulated time the checkpoint was taken at in seconds
+	 */
+	private final double time;
+
+	/**
+	 * Create a restored checkpoint
+	 *
+	 * @param entities The restored entities
+	 * @param time The simulated time in seconds
+	 */
+	private Checkpoint(List<Entity> entities, double time) {
+		this.entities = entities;
+		this.time = time;
+	}
+
+	/**
+	 * Save a system to a checkpoint file, replacing the file if it exists.
+	 * The checkpoint is written to a temporary file first, so a failed save leaves the old file in place.
+	 *
+	 * @param file The file to write
+	 * @param entities The entities to save, which must share one body store and hold every body in it
+	 * @param time The simulated time in seconds
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void save(File file, List<Entity> entities, double time) throws IOException {
+		BodyStore bodies = entities.get(0).getBodies();
+		byte[] entityColumns = encodeEntities(entities);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(size(entities.size(), entityColumns));
+		write(buffer, bodies, entities.size(), entityColumns, time);
+		buffer.flip();
+		replace(file, buffer, 0);
+	}
+
+	/**
+	 * Write a checkpoint to a temporary file and sync it to disk, then rename it over a file in one atomic step
+	 * and sync the directory so the rename is on the disk too.
+	 * Older checkpoints can be kept by rotating them first, the file becoming file.1, file.1 becoming file.2
+	 * and so on. A crash at any point leaves either the new checkpoint or the ones before it complete.
+	 * <p>
+	 * The temporary file is written with plain channel writes rather than mapped, since a mapped file
+	 * cannot be renamed or truncated on some platforms until its buffer is garbage collected.
+	 *
+	 * @param file The file to replace
+	 * @param buffer The checkpoint to write, from its position to its limit
+	 * @param keep Number of older checkpoints to keep as well as the newest
+	 * @throws IOException If the checkpoint cannot be written
+	 */
+	static void replace(File file, ByteBuffer buffer, int keep) throws IOException {
+		File temporary = new File(file.getPath() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			// Make sure the checkpoint is on the disk before it replaces anything
+			channel.force(true);
+		}
+
+		if (keep > 0) {
+			for (int i = keep - 1; i >= 1; i--) {
+				File older = rotated(file, i);
+				if (older.exists())
+					Files.move(older.toPath(), rotated(file, i + 1).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			if (file.exists())
+				Files.move(file.toPath(), rotated(file, 1).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		syncDirectory(file);
+	}
+
+	/**
+	 * Sync the directory holding a file to disk, so renames within it survive a crash
+	 *
+	 * @param file The file whose directory to sync
+	 */
+	private static void syncDirectory(File file) {
+		File directory = file.getAbsoluteFile().getParentFile();
+		try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			// Directories cannot be opened on some platforms, such as Windows, which make renames durable themselves
+		}
+	}
+
+	/**
+	 * Get the file an older checkpoint is kept in
+	 *
+	 * @param file The file the newest checkpoint is kept in
+	 * @param age 1 for the checkpoint before the newest, 2 for the one before that, and so on
+	 * @return The file
+	 */
+	static File rotated(File file, int age) {
+		return new File(file.getPath() + "." + age);
+	}
+
+	/**
+	 * Encode everything about a system's entities apart from their bodies' state:
+	 * the rotation period and type columns and the name table, in the order of the bodies in their store.
+	 * These only change when a new system is loaded, so can be encoded once and written with every checkpoint.
+	 *
+	 * @param entities The entities, which must share one body store and hold every body in it
+	 * @return The encoded columns
+	 */
+	static byte[] encodeEntities(List<Entity> entities) {
+		int count = entities.size();
+		if (entities.get(0).getBodies().size() != count)
+			throw new IllegalArgumentException("Entities must hold every body in their store: "
+					+ count + " of " + entities.get(0).getBodies().size());
+
+		int[] rotationPeriods = new int[count];
+		byte[] types = new byte[count];
+		byte[][] names = new byte[count * 2][];
+		int size = count * (Integer.BYTES + 1);
+		for (Entity entity : entities) {
+			int i = entity.getIndex();
+			rotationPeriods[i] = entity.getRotationPeriod();
+			types[i] = (byte) entity.getType().ordinal();
+			names[2 * i] = (entity.getName() == null ? "" : entity.getName()).getBytes(StandardCharsets.UTF_8);
+			names[2 * i + 1] = XMLReader.getModelName(entity).getBytes(StandardCharsets.UTF_8);
+			size += 2 * Integer.BYTES + names[2 * i].length + names[2 * i + 1].length;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.asIntBuffer().put(rotationPeriods);
+		buffer.position(count * Integer.BYTES);
+		buffer.put(types);
+		for (byte[] name : names)
+			buffer.putInt(name.length).put(name);
+		return buffer.array();
+	}
+
+	/**
+	 * Find the size of a checkpoint
+	 *
+	 * @param count Number of bodies
+	 * @param entityColumns The entities' encoded columns from {@link #encodeEntities(List)}
+	 * @return The size in bytes
+	 */
+	static int size(int count, byte[] entityColumns) {
+		return HEADER_SIZE + count * 5 * Double.BYTES + entityColumns.length;
+	}
+
+	/**
+	 * Write a checkpoint to a buffer
+	 *
+	 * @param buffer The buffer to write to from its position, with room for {@link #size(int, byte[])} bytes
+	 * @param bodies The bodies' state
+	 * @param count Number of bodies the entities' columns were encoded for
+	 * @param entityColumns The entities' encoded columns from {@link #encodeEntities(List)}
+	 * @param time The simulated time in seconds
+	 */
+	static void write(ByteBuffer buffer, BodyStore bodies, int count, byte[] entityColumns, double time) {
+		if (bodies.size() != count)
+			throw new IllegalArgumentException("Entities were encoded for " + count + " bodies, not " + bodies.size());
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(0).putDouble(time);
+		bodies.write(buffer);
+		buffer.put(entityColumns);
+	}
+
+	/**
+	 * Restore a system from a checkpoint file
+	 *
+	 * @param file The file to read
+	 * @return The restored checkpoint
+	 * @throws IOException If the file cannot be read or is not a checkpoint of a supported version
+	 */
+	public static Checkpoint load(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE)
+				throw new IOException("Not a checkpoint: " + file);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt() != MAGIC)
+				throw new IOException("Not a checkpoint: " + file);
+			int version = buffer.getInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported checkpoint version " + version + ": " + file);
+			int count = buffer.getInt();
+			buffer.getInt();
+			double time = buffer.getDouble();
+			// Checked before allocating, as a corrupt count could ask for more memory than there is
+			if (count < 0 || HEADER_SIZE + (long) count * BYTES_PER_BODY > channel.size())
+				throw new IOException("Corrupt checkpoint, " + count + " bodies cannot fit: " + file);
+
+			BodyStore bodies = new BodyStore(count);
+			bodies.read(buffer, count);
+			int[] rotationPeriods = new int[count];
+			buffer.asIntBuffer().get(rotationPeriods);
+			buffer.position(buffer.position() + count * Integer.BYTES);
+			byte[] types = new byte[count];
+			buffer.get(types);
+
+			EntityType[] typeValues = EntityType.values();
+			List<Entity> entities = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				String name = readString(buffer);
+				Entity modelEntity = XMLReader.getModelEntity(readString(buffer));
+				EntityType type = types[i] >= 0 && types[i] < typeValues.length ? typeValues[types[i]] : EntityType.Planet;
+				Entity entity = new Entity(type, modelEntity, bodies, i, new Vector3f(0.1f, 0.1f, 0.1f), new Vector3f(0, 0, 0));
+				entity.setName(name);
+				entity.setRotationPeriod(rotationPeriods[i]);
+				entities.add(entity);
+			}
+			return new Checkpoint(entities, time);
+		} catch (RuntimeException e) {
+			// A truncated or corrupt file runs past the end of the buffer
+			throw new IOException("Corrupt checkpoint: " + file, e);
+		}
+	}
+
+	/**
+	 * Read a string written as an int byte count followed by UTF-8 bytes
+	 *
+	 * @param buffer The buffer to read from its position
+	 * @return The string
+	 */
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining())
+			throw new BufferUnderflowException();
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public List<Entity> getEntities() {
+		return entities;
+	}
+
+	public double getTime() {
+		return time;
+	}
+}
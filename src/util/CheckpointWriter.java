@@ -0,0 +1,177 @@
+package util;
+
+import entities.Entity;
+import simulation.BodyStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes checkpoints on its own thread, so the thread advancing the bodies only pays for copying them into memory.
+ * The state is copied into one of a small pool of buffers and queued. If every buffer is still waiting
+ * to be written, the checkpoint is skipped rather than holding up the simulation.
+ * <p>
+ * Each checkpoint is written to a temporary file and synced to disk, then the older checkpoints are rotated,
+ * the file becoming file.1, file.1 becoming file.2 and so on, and the temporary file is renamed into place
+ * in one atomic step, as described in {@link Checkpoint#replace(File, ByteBuffer, int)}.
+ */
+public class CheckpointWriter extends Thread {
+
+	/**
+	 * Number of buffers states can be copied into
+	 */
+	private static final int POOL_SIZE = 2;
+	/**
+	 * Longest to wait for a checkpoint before checking if the writer has been asked to stop, in milliseconds
+	 */
+	private static final long POLL_MILLIS = 100;
+
+	/**
+	 * The file the newest checkpoint is written to
+	 */
+	private final File file;
+	/**
+	 * Number of older checkpoints to keep as well as the newest
+	 */
+	private final int keep;
+	/**
+	 * Buffers free to copy a state into, and buffers holding states waiting to be written
+	 */
+	private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(POOL_SIZE);
+	private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(POOL_SIZE);
+	/**
+	 * False once the thread has been asked to stop
+	 */
+	private volatile boolean running = true;
+
+	/**
+	 * Create a checkpoint writer, which starts writing once started
+	 *
+	 * @param file The file to write the newest checkpoint to
+	 * @param keep Number of older checkpoints to keep as well as the newest
+	 */
+	public CheckpointWriter(File file, int keep) {
+		super("Checkpoint writer");
+		setDaemon(true);
+		this.file = file;
+		this.keep = keep;
+		for (int i = 0; i < POOL_SIZE; i++)
+			free.add(ByteBuffer.allocateDirect(0));
+	}
+
+	/**
+	 * Copy the bodies' state into a free buffer and queue it to be written.
+	 * Called by the thread advancing the bodies, between steps.
+	 *
+	 * @param bodies The bodies to checkpoint
+	 * @param entities The encoded entities the bodies belong to, swapped in at the same step as the bodies
+	 * @param time The simulated time in seconds
+	 * @return True if the state was queued, false if no buffer was free or the bodies do not match the entities
+	 */
+	public boolean offer(BodyStore bodies, EncodedEntities entities, double time) {
+		if (entities == null || entities.count != bodies.size())
+			return false;
+		ByteBuffer buffer = free.poll();
+		if (buffer == null)
+			return false;
+
+		int size = Checkpoint.size(entities.count, entities.columns);
+		if (buffer.capacity() < size)
+			buffer = ByteBuffer.allocateDirect(size);
+		buffer.clear();
+		Checkpoint.write(buffer, bodies, entities.count, entities.columns, time);
+		buffer.flip();
+		full.add(buffer);
+		return true;
+	}
+
+	@Override
+	public void run() {
+		// Finish writing any queued checkpoints after being asked to stop
+		while (running || !full.isEmpty()) {
+			ByteBuffer buffer;
+			try {
+				buffer = full.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				continue;
+			}
+			if (buffer == null)
+				continue;
+			try {
+				Checkpoint.replace(file, buffer, keep);
+			} catch (IOException e) {
+				System.err.println("Could not write checkpoint!");
+				e.printStackTrace();
+			} finally {
+				free.add(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Stop the writer once every queued checkpoint is written, waiting for it to finish
+	 */
+	public void shutdown() {
+		running = false;
+		try {
+			join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Restore the newest checkpoint that can be read, falling back to older ones if the newest is missing or corrupt
+	 *
+	 * @return The restored checkpoint
+	 * @throws IOException If no checkpoint can be read
+	 */
+	public Checkpoint loadNewest() throws IOException {
+		IOException failure = null;
+		for (int age = 0; age <= keep; age++) {
+			File checkpoint = age == 0 ? file : Checkpoint.rotated(file, age);
+			try {
+				return Checkpoint.load(checkpoint);
+			} catch (IOException e) {
+				if (failure == null)
+					failure = e;
+			}
+		}
+		throw failure;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Everything about a system's entities apart from their bodies' state, encoded once when the system is loaded
+	 * or an entity is edited and written with every checkpoint after that
+	 */
+	public static final class EncodedEntities {
+
+		/**
+		 * Number of bodies
+		 */
+		private final int count;
+		/**
+		 * The encoded columns from {@link Checkpoint#encodeEntities(List)}
+		 */
+		private final byte[] columns;
+
+		/**
+		 * Encode a system's entities
+		 *
+		 * @param entities The entities, which must share one body store and hold every body in it
+		 */
+		public EncodedEntities(List<Entity> entities) {
+			count = entities.size();
+			columns = Checkpoint.encodeEntities(entities);
+		}
+	}
+}
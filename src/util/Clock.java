@@ -4,11 +4,13 @@ import org.lwjgl.Sys;
 import org.lwjgl.input.Keyboard;
 
 public class Clock {
-	private static boolean paused = false;
+	private static volatile boolean paused = false;
 	private static long lastFrame;
-	private static float d = 0, multiplier = 1, timeCount = 0;
+	private static float d = 0, timeCount = 0;
+	private static volatile float multiplier = 1;
 	private static double totalTime = 0;
 	private static int fps, fpsCount, ups, upsCount;
+	private static double requestedCount, achievedCount, achievedShare = 1;
 
 	/**
 	 * Returns the system time in milliseconds.
@@ -83,18 +85,22 @@ public class Clock {
 		if (input.Keyboard.getKeyDownNoRepeats(Keyboard.KEY_P) && Keyboard.getEventKeyState())
 			pause();
 
-		// Add delta to counters
+		// Add delta to counter, the total time is set from the physics thread's states
 		timeCount += d;
-		if (!paused)
-			totalTime += d * multiplier;
 
 		// Update UPS and FPS counters
 		if (timeCount > 1) {
 			fps = fpsCount;
 			fpsCount = 0;
 
-			ups = upsCount;
-			upsCount = 0;
+			synchronized (Clock.class) {
+				ups = upsCount;
+				upsCount = 0;
+
+				achievedShare = requestedCount > 0 ? achievedCount / requestedCount : 1;
+				requestedCount = 0;
+				achievedCount = 0;
+			}
 
 			timeCount -= 1f;
 		}
@@ -118,6 +124,15 @@ public class Clock {
 		multiplier = value;
 	}
 
+	/**
+	 * Check if the clock is paused.
+	 *
+	 * @return True if paused, otherwise false
+	 */
+	public static boolean isPaused() {
+		return paused;
+	}
+
 	/**
 	 * Pauses the Clock, makes <code>delta()</code> return 0.
 	 */
@@ -135,10 +150,30 @@ public class Clock {
 	/**
 	 * Updates the UPS counter.
 	 */
-	public static void updateUPS() {
+	public static synchronized void updateUPS() {
 		upsCount++;
 	}
 
+	/**
+	 * Updates the UPS counter by a number of updates.
+	 *
+	 * @param updates Number of updates to count
+	 */
+	public static synchronized void updateUPS(int updates) {
+		upsCount += updates;
+	}
+
+	/**
+	 * Updates the simulated time counters.
+	 *
+	 * @param requested Simulated time asked for in seconds
+	 * @param achieved Simulated time actually covered in seconds
+	 */
+	public static synchronized void updateSimulatedTime(double requested, double achieved) {
+		requestedCount += requested;
+		achievedCount += achieved;
+	}
+
 	/**
 	 * Getter for the FPS.
 	 *
@@ -157,6 +192,15 @@ public class Clock {
 		return ups > 0 ? ups : upsCount;
 	}
 
+	/**
+	 * Getter for the share of the requested simulated time that was achieved over the last second.
+	 *
+	 * @return Achieved simulated time divided by requested simulated time
+	 */
+	public static synchronized double getAchievedShare() {
+		return achievedShare;
+	}
+
 	/**
 	 * Get the time since the simulation started.
 	 *
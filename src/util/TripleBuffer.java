@@ -0,0 +1,91 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands values from one writing thread to one reading thread without locks.
+ * There are three buffers: one being written, one being read, and a spare holding the newest finished value.
+ * Publishing swaps the written buffer with the spare, and the reader swaps its buffer with the spare
+ * when a newer value is waiting, so neither thread ever waits on the other.
+ *
+ * @param <T> Type of the buffers
+ */
+public class TripleBuffer<T> {
+
+	/**
+	 * Bits of the shared state holding the index of the spare buffer
+	 */
+	private static final int INDEX_MASK = 3;
+	/**
+	 * Bit of the shared state set when the spare buffer holds a value the reader has not seen
+	 */
+	private static final int FRESH = 4;
+
+	/**
+	 * The three buffers
+	 */
+	private final Object[] buffers;
+	/**
+	 * Index of the spare buffer and whether it is fresh
+	 */
+	private final AtomicInteger spare = new AtomicInteger(1);
+	/**
+	 * Index of the buffer owned by the writer
+	 */
+	private int back = 0;
+	/**
+	 * Index of the buffer owned by the reader
+	 */
+	private int front = 2;
+
+	/**
+	 * Create a triple buffer
+	 *
+	 * @param first The first buffer, which is written to first
+	 * @param second The second buffer
+	 * @param third The third buffer, which is read before anything is published
+	 */
+	public TripleBuffer(T first, T second, T third) {
+		buffers = new Object[]{first, second, third};
+	}
+
+	/**
+	 * Get the buffer to write the next value into. Only called by the writing thread.
+	 *
+	 * @return The buffer owned by the writer
+	 */
+	@SuppressWarnings("unchecked")
+	public T getWriteBuffer() {
+		return (T) buffers[back];
+	}
+
+	/**
+	 * Make the write buffer the newest value and take the spare buffer to write into next.
+	 * Only called by the writing thread.
+	 */
+	public void publish() {
+		back = spare.getAndSet(back | FRESH) & INDEX_MASK;
+	}
+
+	/**
+	 * Take the newest published value if the reader has not seen it yet. Only called by the reading thread.
+	 *
+	 * @return True if the read buffer now holds a newer value, otherwise false
+	 */
+	public boolean update() {
+		if ((spare.get() & FRESH) == 0)
+			return false;
+		front = spare.getAndSet(front) & INDEX_MASK;
+		return true;
+	}
+
+	/**
+	 * Get the buffer holding the value last taken by {@link #update()}. Only called by the reading thread.
+	 *
+	 * @return The buffer owned by the reader
+	 */
+	@SuppressWarnings("unchecked")
+	public T getReadBuffer() {
+		return (T) buffers[front];
+	}
+}
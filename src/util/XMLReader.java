@@ -2,21 +2,22 @@ package util;
 
 import entities.Entity;
 import entities.EntityType;
-import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import simulation.BodyStore;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by Christopher on 22/05/2016.
@@ -24,9 +25,23 @@ import java.util.List;
 public class XMLReader {
 
 	/**
-	 * The most recently accessed XML file
+	 * Entities whose models loaded entities share, by the name given for the model in system files
 	 */
-	private static Document mostRecentXML;
+	private static final Map<String, Entity> MODELS = new LinkedHashMap<>();
+
+	static {
+		MODELS.put("sun", Entity.sun);
+		MODELS.put("mercury", Entity.mercury);
+		MODELS.put("venus", Entity.venus);
+		MODELS.put("earth", Entity.earth);
+		MODELS.put("mars", Entity.mars);
+		MODELS.put("jupiter", Entity.jupiter);
+		MODELS.put("saturn", Entity.saturn);
+		MODELS.put("uranus", Entity.uranus);
+		MODELS.put("neptune", Entity.neptune);
+		MODELS.put("pluto", Entity.pluto);
+		MODELS.put("brownDwarf", Entity.brownDwarf);
+	}
 
 	/**
 	 * Load a solar system
@@ -35,13 +50,14 @@ public class XMLReader {
 	 * @return Array of entities loaded from the file
 	 */
 	public static List<Entity> loadSystem(String path) {
-		// Create an XML Document object
-		Document xmlDoc = getDocument(path);
-		mostRecentXML = xmlDoc;
-
-		// Get all of the entities from the XML Document
-		assert xmlDoc != null;
-		return loadSystem(xmlDoc);
+		InputStream stream = XMLReader.class.getResourceAsStream(path);
+		if (stream == null)
+			throw new IllegalArgumentException("No system file at " + path);
+		try (InputStream input = stream) {
+			return loadSystem(input);
+		} catch (IOException | XMLStreamException e) {
+			throw new IllegalArgumentException("Not a valid system file: " + path, e);
+		}
 	}
 
 	/**
@@ -51,180 +67,118 @@ public class XMLReader {
 	 * @return Array of entities from the loaded file
 	 */
 	public static List<Entity> loadSystem(File file) {
-		// Create an XML Document object
-		Document xmlDoc = getDocument(file);
-		mostRecentXML = xmlDoc;
-
-		// Get all of the entities from the XML Document
-		assert xmlDoc != null;
-		return loadSystem(xmlDoc);
+		try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+			return loadSystem(input);
+		} catch (IOException | XMLStreamException e) {
+			throw new IllegalArgumentException("Not a valid system file: " + file, e);
+		}
 	}
 
 	/**
-	 * Load a solar system from a XML document
+	 * Load a solar system from a stream of XML in a single pass, adding each body to the store
+	 * as soon as its entity element ends rather than building the whole document first
 	 *
-	 * @param xmlDoc The XML document to load from
-	 * @return Array of entities from the document
+	 * @param input The stream to read
+	 * @return Array of entities from the stream
+	 * @throws XMLStreamException If the stream is not well formed XML
 	 */
-	private static List<Entity> loadSystem(Document xmlDoc) {
-		NodeList entityNodes = xmlDoc.getElementsByTagName("entity");
+	private static List<Entity> loadSystem(InputStream input) throws XMLStreamException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		// System files have no DTD, and nothing outside the file should be read
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		XMLStreamReader reader = factory.createXMLStreamReader(input);
 
-		// Create an array of Strings for each entity parameter
-		List<String> names = getElement(entityNodes, "name");
-		List<String> types = getElement(entityNodes, "type");
-		List<String> models = getElement(entityNodes, "model");
-		List<String> xPositions = getElement(entityNodes, "xPosition");
-		List<String> yPositions = getElement(entityNodes, "yPosition");
-		List<String> xVelocities = getElement(entityNodes, "xVelocity");
-		List<String> yVelocities = getElement(entityNodes, "yVelocity");
-		List<String> masses = getElement(entityNodes, "mass");
-		List<String> rotationPeriods = getElement(entityNodes, "rotation-period");
-
-		// Create an array of entity objects
 		List<Entity> entities = new ArrayList<>();
-
-		// Create entities from the arrays of strings
-		for (int i = 0; i < names.size(); i++) {
-			EntityType type;
-			switch (types.get(i)) {
-				case "star":
-					type = EntityType.Star;
-					break;
-				case "planet":
-					type = EntityType.Planet;
-					break;
-				default:
-					type = EntityType.Planet;
-					break;
-			}
-
-			Entity modelEntity;
-			switch (models.get(i)) {
-				case "sun":
-					modelEntity = Entity.sun;
-					break;
-				case "mercury":
-					modelEntity = Entity.mercury;
-					break;
-				case "venus":
-					modelEntity = Entity.venus;
-					break;
-				case "earth":
-					modelEntity = Entity.earth;
-					break;
-				case "mars":
-					modelEntity = Entity.mars;
-					break;
-				case "jupiter":
-					modelEntity = Entity.jupiter;
-					break;
-				case "saturn":
-					modelEntity = Entity.saturn;
-					break;
-				case "uranus":
-					modelEntity = Entity.uranus;
-					break;
-				case "neptune":
-					modelEntity = Entity.neptune;
-					break;
-				case "pluto":
-					modelEntity = Entity.pluto;
-					break;
-				case "brownDwarf":
-					modelEntity = Entity.brownDwarf;
-					break;
-				default:
-					modelEntity = Entity.sun;
+		BodyStore bodies = new BodyStore();
+		// Values of the entity being read
+		String name = null, type = null, model = null;
+		double x = 0, y = 0, velocityX = 0, velocityY = 0, mass = 0;
+		int rotationPeriod = 0;
+		boolean inEntity = false;
+		try {
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					String element = reader.getLocalName();
+					if (element.equals("entity")) {
+						inEntity = true;
+						name = type = model = null;
+						x = y = velocityX = velocityY = mass = 0;
+						rotationPeriod = 0;
+						continue;
+					}
+					if (!inEntity)
+						continue;
+					switch (element) {
+						case "name":
+							name = reader.getElementText().trim();
+							break;
+						case "type":
+							type = reader.getElementText().trim();
+							break;
+						case "model":
+							model = reader.getElementText().trim();
+							break;
+						case "xPosition":
+							x = Double.parseDouble(reader.getElementText().trim());
+							break;
+						case "yPosition":
+							y = Double.parseDouble(reader.getElementText().trim());
+							break;
+						case "xVelocity":
+							velocityX = Double.parseDouble(reader.getElementText().trim());
+							break;
+						case "yVelocity":
+							velocityY = Double.parseDouble(reader.getElementText().trim());
+							break;
+						case "mass":
+							mass = Double.parseDouble(reader.getElementText().trim());
+							break;
+						case "rotation-period":
+							rotationPeriod = Integer.parseInt(reader.getElementText().trim());
+							break;
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("entity")) {
+					inEntity = false;
+					int index = bodies.add(x, y, velocityX, velocityY, mass);
+					Entity newEntity = new Entity("star".equals(type) ? EntityType.Star : EntityType.Planet,
+							getModelEntity(model), bodies, index, new Vector3f(0.1f, 0.1f, 0.1f), new Vector3f(0, 0, 0));
+					newEntity.setName(name);
+					newEntity.setRotationPeriod(rotationPeriod);
+					entities.add(newEntity);
+				}
 			}
-			Entity newEntity = new Entity(type, modelEntity, new Vector3f(Float.parseFloat(xPositions.get(i)), 0, Float.parseFloat(yPositions.get(i))), new Vector3f(0.1f, 0.1f, 0.1f), new Vector3f(0, 0, 0));
-			newEntity.setName(names.get(i));
-			newEntity.setVelocity(new Vector2f(Float.parseFloat(xVelocities.get(i)), Float.parseFloat(yVelocities.get(i))));
-			newEntity.setMass(Float.parseFloat(masses.get(i)));
-			newEntity.setRotationPeriod(Integer.parseInt(rotationPeriods.get(i)));
-
-			entities.add(newEntity);
+		} finally {
+			reader.close();
 		}
+		if (entities.isEmpty())
+			throw new XMLStreamException("No entities found");
 
 		return entities;
 	}
 
 	/**
-	 * Load an xml document
+	 * Get the entity whose model is used for a model name
 	 *
-	 * @param path Location of the document
-	 * @return the xml document
+	 * @param model The model's name in a system file
+	 * @return The entity with the model, the sun's if the name is unknown
 	 */
-	private static Document getDocument(String path) {
-		try {
-			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-
-			factory.setIgnoringComments(true);
-			factory.setIgnoringElementContentWhitespace(true);
-			factory.setValidating(true);
-
-			DocumentBuilder builder = factory.newDocumentBuilder();
-			builder.setErrorHandler(null);
-
-			return builder.parse(Class.class.getResourceAsStream(path));
-
-		} catch (ParserConfigurationException | SAXException | IOException e) {
-			e.printStackTrace();
-		}
-
-		return null;
+	public static Entity getModelEntity(String model) {
+		return MODELS.getOrDefault(model, Entity.sun);
 	}
 
 	/**
-	 * Load an xml document
+	 * Get the name of the model an entity uses
 	 *
-	 * @param file Location of the document
-	 * @return the xml document
-	 */
-	private static Document getDocument(File file) {
-		try {
-			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-
-			factory.setIgnoringComments(true);
-			factory.setIgnoringElementContentWhitespace(true);
-			factory.setValidating(true);
-
-			DocumentBuilder builder = factory.newDocumentBuilder();
-			builder.setErrorHandler(null);
-
-			return builder.parse(file);
-
-		} catch (ParserConfigurationException | SAXException | IOException e) {
-			e.printStackTrace();
-		}
-
-		return null;
-	}
-
-	/**
-	 * Get the instances of an element
-	 *
-	 * @param entities    Entities in which to fint the element
-	 * @param elementName The name of the element we need to get
-	 * @return String array of the found elements
-	 */
-	public static List<String> getElement(NodeList entities, String elementName) {
-		List<String> elements = new ArrayList<>();
-		for (int i = 0; i < entities.getLength(); i++) {
-			Node entityNode = entities.item(i);
-			Element entityElement = (Element) entityNode;
-			NodeList nameList = entityElement.getElementsByTagName(elementName);
-			Element nameElement = (Element) nameList.item(0);
-			NodeList elementList = nameElement.getChildNodes();
-			elements.add(elementList.item(0).getNodeValue().trim());
-		}
-		return elements;
-	}
-
-	/**
-	 * Get the most recently accessed XML file as an array of entities
-	 * @return the most recently accessed XML file
+	 * @param entity The entity
+	 * @return The model's name as used in system files, sun if the entity's model is not a shared one
 	 */
-	public static List<Entity> loadMostRecent() {
-		return loadSystem(mostRecentXML);
+	public static String getModelName(Entity entity) {
+		for (Map.Entry<String, Entity> model : MODELS.entrySet())
+			if (model.getValue() == entity.getModelEntity())
+				return model.getKey();
+		return "sun";
 	}
 }